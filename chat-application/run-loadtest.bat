@@ -0,0 +1,32 @@
+@echo off
+cd /d %~dp0
+echo ================================
+echo     CHAT LOAD TEST
+echo ================================
+echo.
+
+echo 1. Checking dependencies...
+if not exist lib (
+    echo Downloading dependencies...
+    call mvn dependency:copy-dependencies -DoutputDirectory=lib
+)
+
+echo.
+echo 2. Compiling project...
+call mvn clean compile
+if errorlevel 1 (
+    echo ERROR: Compilation failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo 3. Starting Load Test...
+echo    Options: key=value, e.g. users=2000 rate=200 durationSeconds=120 embedded=true
+echo    Against a running server, raise server.maxConnectionsPerIp there first
+echo    Results are appended to loadtest-results.csv
+echo.
+
+java -Dfile.encoding=UTF-8 -cp "target/classes;lib/*" chat.loadtest.LoadGenerator %*
+
+pause
\ No newline at end of file
@@ -3,24 +3,68 @@ package chat.client;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import chat.client.exceptions.ConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.net.ssl.*;
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class ClientController {
+    private static final Logger logger = LoggerFactory.getLogger(ClientController.class);
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+    private static final int DISPATCH_BATCH_SIZE = 256;
+    private static final long DISPATCHER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long RECONNECT_BASE_MS = Long.getLong("chat.client.reconnectBaseMs", 500);
+    private static final long RECONNECT_MAX_MS = Long.getLong("chat.client.reconnectMaxMs", 30000);
+    private static final int RECONNECT_MAX_ATTEMPTS = Integer.getInteger("chat.client.reconnectMaxAttempts", 20);
+    
+    /**
+     * What the reader does when the inbound buffer is full: BLOCK stops reading
+     * from the socket until the listener catches up, so the server sees TCP
+     * backpressure; DROP discards the frame. Both are counted.
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP
+    }
+    
     private Socket socket;
     private BufferedReader in;
     private PrintWriter out;
     private String serverAddress = "localhost";
     private int serverPort = 8080;
+    private boolean tlsEnabled = Boolean.getBoolean("chat.client.tls");
+    private SSLContext sslContext;
     private AtomicBoolean connected = new AtomicBoolean(false);
-    private BlockingQueue<String> messageQueue = new LinkedBlockingQueue<>(100);
+    private final SpscRingBuffer<JsonObject> inbound =
+        new SpscRingBuffer<>(Integer.getInteger("chat.client.inboundCapacity", 8192));
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(
+        System.getProperty("chat.client.inboundOverflow", "BLOCK").trim().toUpperCase());
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong inboundStalls = new AtomicLong();
+    private volatile Thread dispatcherThread;
+    private volatile boolean dispatcherWaiting;
     private Thread messageReaderThread;
     private Thread keepAliveThread;
     private final Object connectionLock = new Object();
     private final AtomicBoolean shutdown = new AtomicBoolean(false);
     private final AtomicBoolean keepAliveRunning = new AtomicBoolean(false);
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, CompletableFuture<JsonObject>> pendingRequests = new ConcurrentHashMap<>();
+    private volatile ServerMessageListener messageListener;
+    private volatile boolean autoReconnect = !"false".equals(System.getProperty("chat.client.reconnect"));
+    // Token from the last login, used to resume the session after a reconnect
+    private volatile String sessionToken;
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    private volatile Thread reconnectThread;
     
     public ClientController() {
     }
@@ -45,6 +89,10 @@ public class ClientController {
                 
                 socket.connect(new InetSocketAddress(serverAddress, serverPort), 5000);
                 
+                if (tlsEnabled) {
+                    socket = startTls(socket);
+                }
+                
                 in = new BufferedReader(new InputStreamReader(
                     socket.getInputStream(), "UTF-8"));
                 out = new PrintWriter(new OutputStreamWriter(
@@ -53,13 +101,11 @@ public class ClientController {
                 connected.set(true);
                 shutdown.set(false);
                 
-                messageQueue.clear();
-                
                 startMessageReader();
+                startDispatcher();
                 startKeepAlive();
                 
-                System.out.println("DEBUG: Successfully connected to server " + 
-                    serverAddress + ":" + serverPort);
+                logger.debug("Successfully connected to server {}:{}", serverAddress, serverPort);
                 return true;
             } catch (SocketTimeoutException e) {
                 connected.set(false);
@@ -67,6 +113,10 @@ public class ClientController {
             } catch (ConnectException e) {
                 connected.set(false);
                 throw new ConnectionException("Cannot connect to server. Make sure server is running on port " + serverPort);
+            } catch (SSLException e) {
+                connected.set(false);
+                closeQuietly(socket);
+                throw new ConnectionException("TLS handshake with server failed: " + e.getMessage(), e);
             } catch (IOException e) {
                 connected.set(false);
                 throw new ConnectionException("Cannot connect to server: " + e.getMessage());
@@ -74,6 +124,50 @@ public class ClientController {
         }
     }
     
+    private Socket startTls(Socket plainSocket) throws IOException {
+        SSLContext context = getSslContext();
+        SSLSocket sslSocket = (SSLSocket) context.getSocketFactory()
+            .createSocket(plainSocket, serverAddress, serverPort, true);
+        
+        SSLParameters parameters = sslSocket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(parameters);
+        
+        long start = System.nanoTime();
+        sslSocket.startHandshake();
+        if (logger.isDebugEnabled()) {
+            logger.debug("TLS handshake completed in {} ms using {}",
+                (System.nanoTime() - start) / 1_000_000, sslSocket.getSession().getProtocol());
+        }
+        return sslSocket;
+    }
+    
+    private SSLContext getSslContext() throws IOException {
+        if (sslContext == null) {
+            try {
+                // The JVM default context keeps one client session cache for every
+                // controller, so reconnects to the same host:port resume the session.
+                sslContext = SSLContext.getDefault();
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IOException("TLS is not available: " + e.getMessage(), e);
+            }
+        }
+        return sslContext;
+    }
+    
+    private static String preview(String message, int maxLength) {
+        return message.length() > maxLength ? message.substring(0, maxLength) + "..." : message;
+    }
+    
+    private void closeQuietly(Socket s) {
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+    
     private void startMessageReader() {
         if (messageReaderThread != null && messageReaderThread.isAlive()) {
             messageReaderThread.interrupt();
@@ -85,40 +179,50 @@ public class ClientController {
         }
         
         messageReaderThread = new Thread(() -> {
-            System.out.println("DEBUG: Message reader thread started");
+            logger.debug("Message reader thread started");
             try {
                 String message;
                 while (connected.get() && !shutdown.get() && socket != null && !socket.isClosed()) {
                     try {
                         message = in.readLine();
                         if (message == null) {
-                            System.out.println("DEBUG: Server closed connection");
+                            logger.debug("Server closed connection");
                             break;
                         }
                         
                         if (!message.trim().isEmpty()) {
-                            System.out.println("DEBUG: Received from server: " + 
-                                (message.length() > 100 ? message.substring(0, 100) + "..." : message));
-                            
-                            boolean added = messageQueue.offer(message, 100, TimeUnit.MILLISECONDS);
-                            if (!added) {
-                                System.err.println("WARN: Message queue full, dropping message");
+                            // The reader feeds the inbound ring, so nothing is built
+                            // or written per frame unless debug logging is on
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Received from server: {}", preview(message, 100));
                             }
+                            dispatch(message);
                         }
                     } catch (SocketTimeoutException e) {
                         continue;
                     } catch (IOException e) {
                         if (connected.get() && !shutdown.get()) {
-                            System.err.println("DEBUG: Connection lost in reader: " + e.getMessage());
+                            logger.debug("Connection lost in reader: {}", e.getMessage());
                             break;
                         }
                     }
                 }
             } catch (Exception e) {
-                System.err.println("ERROR in message reader: " + e.getMessage());
+                logger.error("Error in message reader: {}", e.getMessage(), e);
             } finally {
                 connected.set(false);
-                System.out.println("DEBUG: Message reader thread stopped");
+                failPendingRequests(new ConnectionException("Connection to server lost"));
+                // While a reconnect is running, its own attempts end here when they
+                // fail; the reconnect thread handles those
+                if (!shutdown.get() && reconnecting.compareAndSet(false, true)) {
+                    if (autoReconnect && sessionToken != null) {
+                        startReconnect();
+                    } else {
+                        reconnecting.set(false);
+                        notifyDisconnected();
+                    }
+                }
+                logger.debug("Message reader thread stopped");
             }
         });
         messageReaderThread.setName("ClientController-MessageReader");
@@ -126,6 +230,298 @@ public class ClientController {
         messageReaderThread.start();
     }
     
+    /**
+     * Parses a frame once and routes it: a response completes the request with
+     * the same requestId, anything else goes to the message listener.
+     */
+    private void dispatch(String message) {
+        JsonObject json;
+        try {
+            json = JsonParser.parseString(message).getAsJsonObject();
+            if (json.has("requestId")) {
+                CompletableFuture<JsonObject> pending = pendingRequests.remove(json.get("requestId").getAsLong());
+                if (pending != null) {
+                    pending.complete(json);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error parsing server frame: {}. Raw frame: {}", e.getMessage(), message);
+            return;
+        }
+        
+        if (json.has("type") && json.get("type").getAsString().equals("serverBusy")) {
+            String busyMessage = json.has("message") ? json.get("message").getAsString() : "Server busy";
+            failPendingRequests(new ConnectionException(busyMessage));
+            return;
+        }
+        
+        enqueueInbound(json);
+    }
+    
+    /**
+     * Called only from the reader thread, the buffer's single producer.
+     */
+    private void enqueueInbound(JsonObject json) {
+        if (!inbound.offer(json)) {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                long dropped = droppedMessages.incrementAndGet();
+                if (dropped == 1 || dropped % 1000 == 0) {
+                    logger.warn("Inbound buffer full, dropped {} messages so far", dropped);
+                }
+                return;
+            }
+            
+            inboundStalls.incrementAndGet();
+            while (!inbound.offer(json)) {
+                if (shutdown.get() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+            }
+        }
+        
+        Thread dispatcher = dispatcherThread;
+        if (dispatcherWaiting && dispatcher != null) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+    
+    /**
+     * Starts the thread that drains the inbound buffer, its single consumer, and
+     * hands each batch to the message listener. It keeps running across a lost
+     * connection and stops on disconnect().
+     */
+    private void startDispatcher() {
+        if (dispatcherThread != null && dispatcherThread.isAlive()) {
+            return;
+        }
+        
+        inbound.clear();
+        Thread dispatcher = new Thread(() -> {
+            List<JsonObject> batch = new ArrayList<>(DISPATCH_BATCH_SIZE);
+            while (!shutdown.get() && !Thread.currentThread().isInterrupted()) {
+                ServerMessageListener listener = messageListener;
+                if (listener == null || inbound.drainTo(batch, DISPATCH_BATCH_SIZE) == 0) {
+                    dispatcherWaiting = true;
+                    if (messageListener == null || inbound.isEmpty()) {
+                        LockSupport.parkNanos(DISPATCHER_PARK_NANOS);
+                    }
+                    dispatcherWaiting = false;
+                    continue;
+                }
+                
+                try {
+                    listener.onMessages(batch);
+                } catch (Exception e) {
+                    logger.error("Error in message listener: {}", e.getMessage(), e);
+                }
+                batch.clear();
+            }
+            logger.debug("Message dispatcher thread stopped");
+        });
+        dispatcher.setName("ClientController-Dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcherThread = dispatcher;
+        dispatcher.start();
+    }
+    
+    private void startReconnect() {
+        Thread thread = new Thread(this::reconnect);
+        thread.setName("ClientController-Reconnect");
+        thread.setDaemon(true);
+        reconnectThread = thread;
+        thread.start();
+    }
+    
+    /**
+     * Reconnects and resumes the session with the stored token. Attempts are
+     * spaced by exponential backoff with full jitter (a random delay between 0
+     * and the current backoff), so clients dropped by a server restart do not
+     * all come back in the same second. Gives up when the server rejects the
+     * token, after RECONNECT_MAX_ATTEMPTS attempts, or on disconnect().
+     */
+    private void reconnect() {
+        logger.info("Connection lost, reconnecting");
+        int attempt = 0;
+        try {
+            while (!shutdown.get()) {
+                attempt++;
+                if (RECONNECT_MAX_ATTEMPTS > 0 && attempt > RECONNECT_MAX_ATTEMPTS) {
+                    logger.error("Could not reconnect after {} attempts", RECONNECT_MAX_ATTEMPTS);
+                    break;
+                }
+                
+                long delay = reconnectDelay(attempt);
+                ServerMessageListener listener = messageListener;
+                if (listener != null) {
+                    listener.onReconnecting(attempt, delay);
+                }
+                Thread.sleep(delay);
+                
+                Boolean resumed = tryResume();
+                if (resumed == null) {
+                    continue;
+                }
+                if (!resumed) {
+                    break;
+                }
+                
+                logger.info("Session resumed after {} attempts", attempt);
+                reconnecting.set(false);
+                listener = messageListener;
+                if (listener != null) {
+                    listener.onReconnected();
+                }
+                
+                // The new connection may have dropped before the flag was cleared,
+                // in which case its reader left the recovery to this thread
+                if (isConnected() || shutdown.get() || !reconnecting.compareAndSet(false, true)) {
+                    return;
+                }
+                attempt = 0;
+            }
+        } catch (InterruptedException e) {
+            // Only disconnect() interrupts this thread; an attempt may have
+            // connected after it ran and cleared the flag again
+            shutdown.set(true);
+        }
+        
+        closeAbandonedConnection();
+        reconnecting.set(false);
+        if (!shutdown.get()) {
+            notifyDisconnected();
+        }
+    }
+    
+    private long reconnectDelay(int attempt) {
+        long ceiling = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    
+    /**
+     * One reconnect attempt. Returns true if the session was resumed, false if
+     * the server rejected the token, and null if the attempt should be retried.
+     */
+    private Boolean tryResume() throws InterruptedException {
+        String token = sessionToken;
+        if (token == null) {
+            return false;
+        }
+        
+        synchronized (connectionLock) {
+            connected.set(false);
+            closeQuietly(socket);
+        }
+        
+        try {
+            connect();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            
+            JsonObject json = new JsonObject();
+            json.addProperty("type", "resume");
+            json.addProperty("sessionToken", token);
+            JsonObject response = sendRequest(json).get();
+            
+            if (response.has("success") && response.get("success").getAsBoolean()) {
+                rememberSession(response);
+                return true;
+            }
+            logger.error("Server rejected session resume: {}",
+                response.has("message") ? response.get("message").getAsString() : "unknown reason");
+            sessionToken = null;
+            return false;
+        } catch (ConnectionException | ExecutionException e) {
+            logger.debug("Reconnect attempt failed: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Closes a connection left over from a failed reconnect and waits for its
+     * reader, so the reader does not report the loss a second time.
+     */
+    private void closeAbandonedConnection() {
+        synchronized (connectionLock) {
+            connected.set(false);
+            closeQuietly(socket);
+        }
+        Thread reader = messageReaderThread;
+        if (reader != null && reader != Thread.currentThread()) {
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void rememberSession(JsonObject response) {
+        if (response.has("sessionToken")) {
+            sessionToken = response.get("sessionToken").getAsString();
+        }
+    }
+    
+    private void notifyDisconnected() {
+        ServerMessageListener listener = messageListener;
+        if (listener != null) {
+            listener.onDisconnected();
+        }
+    }
+    
+    private void failPendingRequests(Exception cause) {
+        for (CompletableFuture<JsonObject> pending : new ArrayList<>(pendingRequests.values())) {
+            pending.completeExceptionally(cause);
+        }
+    }
+    
+    /**
+     * Sets the listener for frames that are not responses to a request. Frames
+     * that arrived while no listener was set stay buffered and are handed to it
+     * first, in order.
+     */
+    public void setMessageListener(ServerMessageListener listener) {
+        messageListener = listener;
+        Thread dispatcher = dispatcherThread;
+        if (listener != null && dispatcher != null) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+    
+    /**
+     * Sends a request tagged with a new requestId. The future completes with the
+     * server's response to this request, or fails with a ConnectionException if
+     * the connection is lost, or a TimeoutException after 10 seconds.
+     */
+    public CompletableFuture<JsonObject> sendRequest(JsonObject request) {
+        long requestId = nextRequestId.incrementAndGet();
+        request.addProperty("requestId", requestId);
+        
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        pendingRequests.put(requestId, future);
+        future.whenComplete((response, error) -> pendingRequests.remove(requestId));
+        
+        synchronized (connectionLock) {
+            if (out == null || !connected.get()) {
+                future.completeExceptionally(new ConnectionException("Not connected to server"));
+                return future;
+            }
+            
+            out.println(request.toString());
+            out.flush();
+            
+            if (out.checkError()) {
+                future.completeExceptionally(new ConnectionException(
+                    "Error sending " + request.get("type").getAsString() + " request"));
+                return future;
+            }
+        }
+        
+        return future.orTimeout(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    
     private void startKeepAlive() {
         if (keepAliveThread != null && keepAliveThread.isAlive()) {
             keepAliveThread.interrupt();
@@ -133,7 +529,7 @@ public class ClientController {
         
         keepAliveRunning.set(true);
         keepAliveThread = new Thread(() -> {
-            System.out.println("DEBUG: Keep-alive thread started");
+            logger.debug("Keep-alive thread started");
             while (keepAliveRunning.get() && connected.get() && !Thread.currentThread().isInterrupted()) {
                 try {
                     Thread.sleep(15000);
@@ -147,7 +543,7 @@ public class ClientController {
                                 
                                 out.println(heartbeat.toString());
                                 out.flush();
-                                System.out.println("DEBUG: Sent heartbeat to server");
+                                logger.trace("Sent heartbeat to server");
                             }
                         }
                     }
@@ -155,102 +551,100 @@ public class ClientController {
                     Thread.currentThread().interrupt();
                     break;
                 } catch (Exception e) {
-                    System.err.println("DEBUG: Heartbeat error: " + e.getMessage());
+                    logger.debug("Heartbeat error: {}", e.getMessage());
                     if (e instanceof IllegalStateException) {
                         break;
                     }
                 }
             }
-            System.out.println("DEBUG: Keep-alive thread stopped");
+            logger.debug("Keep-alive thread stopped");
         });
         keepAliveThread.setName("ClientController-KeepAlive");
         keepAliveThread.setDaemon(true);
         keepAliveThread.start();
     }
     
-    public String login(String username, String password) throws ConnectionException, InterruptedException {
-        if (!connect()) {
-            throw new ConnectionException("Not connected to server");
-        }
-        
+    public CompletableFuture<JsonObject> loginAsync(String username, String password) {
         JsonObject json = new JsonObject();
         json.addProperty("type", "login");
         json.addProperty("username", username);
         json.addProperty("password", password);
         
-        System.out.println("DEBUG: Sending login request for user: " + username);
-        out.println(json.toString());
-        out.flush();
-        
-        if (out.checkError()) {
-            throw new ConnectionException("Error sending login request");
-        }
-        
-        return waitForSpecificResponse("loginResponse", 10);
+        logger.debug("Sending login request for user: {}", username);
+        return sendRequest(json).thenApply(response -> {
+            if (response.has("success") && response.get("success").getAsBoolean()) {
+                rememberSession(response);
+            }
+            return response;
+        });
     }
     
-    public String register(String username, String password) throws ConnectionException, InterruptedException {
-        if (!connect()) {
-            throw new ConnectionException("Not connected to server");
-        }
-        
+    public CompletableFuture<JsonObject> registerAsync(String username, String password) {
         JsonObject json = new JsonObject();
         json.addProperty("type", "register");
         json.addProperty("username", username);
         json.addProperty("password", password);
         
-        System.out.println("DEBUG: Sending register request for user: " + username);
-        out.println(json.toString());
-        out.flush();
-        
-        if (out.checkError()) {
-            throw new ConnectionException("Error sending register request");
+        logger.debug("Sending register request for user: {}", username);
+        return sendRequest(json);
+    }
+    
+    /**
+     * Requests up to {@code limit} chat messages older than {@code beforeId}
+     * (0 for the newest). The response carries them oldest first in
+     * {@code messages}, and {@code hasMore} if older ones remain.
+     */
+    public CompletableFuture<JsonObject> historyBeforeAsync(long beforeId, int limit) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "history");
+        json.addProperty("beforeId", beforeId);
+        json.addProperty("limit", limit);
+        return sendRequest(json);
+    }
+    
+    /**
+     * Requests up to {@code limit} chat messages newer than {@code afterId},
+     * oldest first; {@code hasMore} is set if newer ones remain.
+     */
+    public CompletableFuture<JsonObject> historyAfterAsync(long afterId, int limit) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "history");
+        json.addProperty("afterId", afterId);
+        json.addProperty("limit", limit);
+        return sendRequest(json);
+    }
+    
+    public String login(String username, String password) throws ConnectionException, InterruptedException {
+        if (!connect()) {
+            throw new ConnectionException("Not connected to server");
         }
         
-        return waitForSpecificResponse("registerResponse", 10);
+        return awaitResponse(loginAsync(username, password), "loginResponse").toString();
     }
     
-    private String waitForSpecificResponse(String expectedType, int timeoutSeconds) 
-            throws InterruptedException, ConnectionException {
-        long endTime = System.currentTimeMillis() + (timeoutSeconds * 1000);
-        long pollTimeout = 1000;
-        
-        System.out.println("DEBUG: Waiting for " + expectedType + " response");
+    public String register(String username, String password) throws ConnectionException, InterruptedException {
+        if (!connect()) {
+            throw new ConnectionException("Not connected to server");
+        }
         
-        while (System.currentTimeMillis() < endTime && !Thread.currentThread().isInterrupted()) {
-            String response = messageQueue.poll(pollTimeout, TimeUnit.MILLISECONDS);
-            
-            if (response != null && !response.trim().isEmpty()) {
-                try {
-                    JsonObject json = JsonParser.parseString(response).getAsJsonObject();
-                    if (json.has("type")) {
-                        String responseType = json.get("type").getAsString();
-                        System.out.println("DEBUG: Received response type: " + responseType);
-                        
-                        if (responseType.equals(expectedType)) {
-                            System.out.println("DEBUG: Found matching " + expectedType + " response");
-                            return response;
-                        } else if (responseType.equals("heartbeat")) {
-                            continue;
-                        } else {
-                            messageQueue.put(response);
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("ERROR parsing response: " + e.getMessage());
-                    System.err.println("Raw response: " + response);
-                    return response;
-                }
+        return awaitResponse(registerAsync(username, password), "registerResponse").toString();
+    }
+    
+    private JsonObject awaitResponse(CompletableFuture<JsonObject> future, String expectedType)
+            throws ConnectionException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConnectionException) {
+                throw (ConnectionException) cause;
             }
-            
-            if (!isConnected()) {
-                throw new ConnectionException("Connection lost while waiting for " + expectedType);
+            if (cause instanceof TimeoutException) {
+                throw new ConnectionException("Timeout waiting for " + expectedType + 
+                    " after " + REQUEST_TIMEOUT_SECONDS + " seconds");
             }
-            
-            pollTimeout = Math.max(100, pollTimeout / 2);
+            throw new ConnectionException("Error waiting for " + expectedType + ": " + cause.getMessage(), cause);
         }
-        
-        throw new ConnectionException("Timeout waiting for " + expectedType + " after " + timeoutSeconds + " seconds");
     }
     
     public void sendMessage(String message) throws ConnectionException {
@@ -271,8 +665,9 @@ public class ClientController {
                     throw new ConnectionException("Error sending message to server");
                 }
                 
-                System.out.println("DEBUG: Message sent to server: " + 
-                    (message.length() > 50 ? message.substring(0, 50) + "..." : message));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Message sent to server: {}", preview(message, 50));
+                }
             }
         }
     }
@@ -285,19 +680,20 @@ public class ClientController {
             synchronized (connectionLock) {
                 out.println(json.toString());
                 out.flush();
-                System.out.println("DEBUG: Logout request sent to server");
+                logger.debug("Logout request sent to server");
             }
         }
     }
     
     public void logout() {
-        System.out.println("DEBUG: Logging out...");
+        logger.debug("Logging out...");
+        sessionToken = null;
         sendLogout();
         disconnect();
     }
     
     public void disconnect() {
-        System.out.println("DEBUG: Disconnecting from server...");
+        logger.debug("Disconnecting from server...");
         
         keepAliveRunning.set(false);
         if (keepAliveThread != null) {
@@ -305,6 +701,10 @@ public class ClientController {
         }
         
         shutdown.set(true);
+        Thread reconnect = reconnectThread;
+        if (reconnect != null && reconnect != Thread.currentThread()) {
+            reconnect.interrupt();
+        }
         synchronized (connectionLock) {
             connected.set(false);
             
@@ -318,6 +718,16 @@ public class ClientController {
                     }
                 }
                 
+                Thread dispatcher = dispatcherThread;
+                if (dispatcher != null) {
+                    dispatcher.interrupt();
+                    try {
+                        dispatcher.join(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                
                 if (out != null) {
                     out.close();
                 }
@@ -330,11 +740,11 @@ public class ClientController {
                     socket.close();
                 }
                 
-                System.out.println("DEBUG: Disconnected from server");
+                logger.debug("Disconnected from server");
             } catch (IOException e) {
-                System.err.println("ERROR during disconnect: " + e.getMessage());
+                logger.error("Error during disconnect: {}", e.getMessage());
             } finally {
-                messageQueue.clear();
+                failPendingRequests(new ConnectionException("Disconnected from server"));
                 in = null;
                 out = null;
                 socket = null;
@@ -352,24 +762,45 @@ public class ClientController {
         }
     }
     
-    public String getNextMessage() throws InterruptedException {
-        return messageQueue.take();
+    public boolean isReconnecting() {
+        return reconnecting.get();
+    }
+    
+    /**
+     * Whether a lost connection is re-established and the session resumed
+     * automatically. On by default; {@code -Dchat.client.reconnect=false} turns
+     * it off.
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
     }
     
-    public String pollMessage(long timeout, TimeUnit unit) throws InterruptedException {
-        return messageQueue.poll(timeout, unit);
+    public boolean isAutoReconnect() {
+        return autoReconnect;
     }
     
-    public String pollMessage(long timeoutMillis) throws InterruptedException {
-        return messageQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    public long getDroppedMessages() {
+        return droppedMessages.get();
     }
     
-    public boolean hasMessages() {
-        return !messageQueue.isEmpty();
+    public long getInboundStalls() {
+        return inboundStalls.get();
     }
     
-    public void clearMessageQueue() {
-        messageQueue.clear();
+    public int getInboundDepth() {
+        return inbound.size();
+    }
+    
+    public int getInboundCapacity() {
+        return inbound.capacity();
+    }
+    
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
     }
     
     public void setServerAddress(String address) {
@@ -380,6 +811,18 @@ public class ClientController {
         this.serverPort = port;
     }
     
+    public void setTlsEnabled(boolean tlsEnabled) {
+        this.tlsEnabled = tlsEnabled;
+    }
+    
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+    
+    public boolean isTlsEnabled() {
+        return tlsEnabled;
+    }
+    
     public String getServerAddress() {
         return serverAddress;
     }
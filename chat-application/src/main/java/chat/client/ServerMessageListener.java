@@ -0,0 +1,47 @@
+package chat.client;
+
+import com.google.gson.JsonObject;
+import java.util.List;
+
+/**
+ * Receives server frames that are not responses to a request, such as chat
+ * messages, system notices and user counts. Called on the controller's
+ * dispatcher thread, so implementations should hand off any UI work; a slow
+ * listener fills the inbound buffer and then blocks or drops per the
+ * controller's overflow policy.
+ */
+public interface ServerMessageListener {
+    
+    void onMessage(JsonObject message);
+    
+    /**
+     * Receives every frame that was waiting, in arrival order. The list is
+     * reused after this returns, so copy it to keep it.
+     */
+    default void onMessages(List<JsonObject> messages) {
+        for (JsonObject message : messages) {
+            onMessage(message);
+        }
+    }
+    
+    /**
+     * The connection was lost and could not be resumed; the user has to log in
+     * again. Called on the controller's reader or reconnect thread.
+     */
+    default void onDisconnected() {
+    }
+    
+    /**
+     * The connection was lost and attempt number {@code attempt} to resume the
+     * session starts after {@code delayMillis}. Called on the reconnect thread.
+     */
+    default void onReconnecting(int attempt, long delayMillis) {
+    }
+    
+    /**
+     * The session was resumed on a new connection. Frames sent while the
+     * connection was down are not replayed. Called on the reconnect thread.
+     */
+    default void onReconnected() {
+    }
+}
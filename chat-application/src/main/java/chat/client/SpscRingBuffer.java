@@ -0,0 +1,97 @@
+package chat.client;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer. {@link #offer} may only
+ * be called from one thread and {@link #poll}, {@link #drainTo} and
+ * {@link #clear} from one other thread; neither side takes a lock.
+ */
+public class SpscRingBuffer<E> {
+    private final Object[] buffer;
+    private final int mask;
+    // Next slot to read, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // Each side's last seen value of the other side's index, so the shared
+    // counters are only re-read when the buffer looks full or empty
+    private long producerHeadCache;
+    private long consumerTailCache;
+    
+    public SpscRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+    
+    public boolean offer(E element) {
+        long currentTail = tail.get();
+        if (currentTail - producerHeadCache >= buffer.length) {
+            producerHeadCache = head.get();
+            if (currentTail - producerHeadCache >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) currentTail & mask] = element;
+        tail.set(currentTail + 1);
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long currentHead = head.get();
+        if (currentHead >= consumerTailCache) {
+            consumerTailCache = tail.get();
+            if (currentHead >= consumerTailCache) {
+                return null;
+            }
+        }
+        int index = (int) currentHead & mask;
+        E element = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(currentHead + 1);
+        return element;
+    }
+    
+    /**
+     * Moves up to {@code maxElements} elements into {@code target} and frees
+     * their slots in one step. Returns the number moved.
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> target, int maxElements) {
+        long currentHead = head.get();
+        consumerTailCache = tail.get();
+        int count = (int) Math.min(consumerTailCache - currentHead, maxElements);
+        for (int i = 0; i < count; i++) {
+            int index = (int) (currentHead + i) & mask;
+            target.add((E) buffer[index]);
+            buffer[index] = null;
+        }
+        if (count > 0) {
+            head.lazySet(currentHead + count);
+        }
+        return count;
+    }
+    
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+    
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+    
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+    
+    public int capacity() {
+        return buffer.length;
+    }
+}
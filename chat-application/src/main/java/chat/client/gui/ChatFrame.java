@@ -1,24 +1,54 @@
 package chat.client.gui;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import chat.client.ServerMessageListener;
 import chat.client.exceptions.ConnectionException;
+import com.google.gson.JsonElement;
+import chat.client.gui.MessageListModel.Line;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatFrame extends JFrame {
+    private static final Logger logger = LoggerFactory.getLogger(ChatFrame.class);
+    private static final int RENDER_INTERVAL_MS = 16;
+    private static final int HISTORY_PAGE_SIZE = 100;
+    private static final int VIEW_CAPACITY = Math.max(HISTORY_PAGE_SIZE * 2,
+        Integer.getInteger("chat.client.viewCapacity", 2000));
     private chat.client.ClientController controller;
     private String username;
-    private JTextArea chatArea;
+    private MessageListModel messageModel;
+    private JList<Line> messageList;
+    private JScrollBar scrollBar;
     private JTextField messageField;
+    private JButton sendButton;
     private JLabel userCountLabel;
-    private Thread messageListener;
     private volatile boolean listening = true;
+    // Lines formatted off the EDT, waiting for the next render tick
+    private final List<Line> pendingLines = new ArrayList<>();
+    private int pendingUserCount = -1;
+    // Scrollback state, only touched on the EDT. detached means the newest lines
+    // are not in the window, because they were dropped to make room for older
+    // history or were missed while reconnecting. Live lines are then held back
+    // until the bottom has been paged in from history.
+    private boolean historyLoading;
+    private boolean reachedStart;
+    private boolean detached;
+    private final ArrayDeque<Line> heldLines = new ArrayDeque<>();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private final Timer renderTimer = new Timer(RENDER_INTERVAL_MS, e -> render());
     
     public ChatFrame(chat.client.ClientController controller, String username) {
         this.controller = controller;
         this.username = username;
+        renderTimer.setRepeats(false);
         setupUI();
         startMessageListener();
     }
@@ -47,14 +77,37 @@ public class ChatFrame extends JFrame {
         
         mainPanel.add(headerPanel, BorderLayout.NORTH);
         
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setFont(new Font("Arial", Font.PLAIN, 14));
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
+        messageModel = new MessageListModel(VIEW_CAPACITY);
+        messageList = new JList<>(messageModel) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+        };
+        Font font = new Font("Arial", Font.PLAIN, 14);
+        messageList.setFont(font);
+        // Fixed row size, so the list never measures rows that are not on screen
+        messageList.setFixedCellHeight(messageList.getFontMetrics(font).getHeight() + 2);
+        messageList.setFixedCellWidth(100);
+        messageList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        messageList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                Line line = (Line) value;
+                setToolTipText(line.getText());
+                if (line.isSystem() && !isSelected) {
+                    setForeground(Color.GRAY);
+                }
+                return this;
+            }
+        });
         
-        JScrollPane scrollPane = new JScrollPane(chatArea);
+        JScrollPane scrollPane = new JScrollPane(messageList);
         scrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        scrollBar = scrollPane.getVerticalScrollBar();
+        scrollBar.addAdjustmentListener(e -> onScroll());
         mainPanel.add(scrollPane, BorderLayout.CENTER);
         
         JPanel inputPanel = new JPanel(new BorderLayout());
@@ -64,7 +117,7 @@ public class ChatFrame extends JFrame {
         messageField.addActionListener(e -> sendMessage());
         inputPanel.add(messageField, BorderLayout.CENTER);
         
-        JButton sendButton = new JButton("Send");
+        sendButton = new JButton("Send");
         sendButton.addActionListener(e -> sendMessage());
         inputPanel.add(sendButton, BorderLayout.EAST);
         
@@ -77,126 +130,322 @@ public class ChatFrame extends JFrame {
     
     private void startMessageListener() {
         listening = true;
-        messageListener = new Thread(() -> {
-            System.out.println("DEBUG: ChatFrame message listener started for user: " + username);
-            while (listening && controller != null && controller.isConnected()) {
-                try {
-                    String message = controller.pollMessage(1000, java.util.concurrent.TimeUnit.MILLISECONDS);
-                    
-                    if (message != null && !message.trim().isEmpty()) {
-                        System.out.println("DEBUG: Processing message in chat: " + 
-                            (message.length() > 100 ? message.substring(0, 100) + "..." : message));
+        logger.debug("ChatFrame message listener started for user: {}", username);
+        controller.setMessageListener(new ServerMessageListener() {
+            @Override
+            public void onMessage(JsonObject message) {
+                if (listening) {
+                    processServerMessage(message);
+                    scheduleRender();
+                }
+            }
+            
+            @Override
+            public void onMessages(List<JsonObject> messages) {
+                if (listening) {
+                    for (JsonObject message : messages) {
                         processServerMessage(message);
                     }
-                    
-                    if (!controller.isConnected()) {
-                        System.out.println("DEBUG: Controller reports disconnected");
-                        break;
-                    }
-                    
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.out.println("DEBUG: Message listener interrupted");
-                    break;
-                } catch (Exception e) {
-                    System.err.println("ERROR in message listener: " + e.getMessage());
-                    e.printStackTrace();
-                    
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
+                    scheduleRender();
                 }
             }
             
-            System.out.println("DEBUG: ChatFrame message listener stopped for user: " + username);
+            @Override
+            public void onDisconnected() {
+                connectionLost();
+            }
             
-            if (listening && (controller == null || !controller.isConnected())) {
-                SwingUtilities.invokeLater(() -> {
-                    int response = JOptionPane.showConfirmDialog(this,
-                        "Connection lost with server. Return to login?",
-                        "Connection Error",
-                        JOptionPane.YES_NO_OPTION,
-                        JOptionPane.ERROR_MESSAGE);
-                    
-                    if (response == JOptionPane.YES_OPTION) {
-                        logout();
-                    }
-                });
+            @Override
+            public void onReconnecting(int attempt, long delayMillis) {
+                logger.debug("Reconnecting in {} ms (attempt {})", delayMillis, attempt);
+                if (listening) {
+                    SwingUtilities.invokeLater(() -> showReconnecting(attempt));
+                }
+            }
+            
+            @Override
+            public void onReconnected() {
+                if (listening) {
+                    SwingUtilities.invokeLater(() -> sessionResumed());
+                }
             }
         });
-        messageListener.setName("ChatFrame-MessageListener-" + username);
-        messageListener.setDaemon(true);
-        messageListener.start();
+        
+        if (!controller.isConnected()) {
+            connectionLost();
+        } else {
+            loadOlder();
+        }
     }
     
-    private void processServerMessage(String jsonMessage) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                JsonObject json = JsonParser.parseString(jsonMessage).getAsJsonObject();
-                String type = json.get("type").getAsString();
+    private void connectionLost() {
+        logger.debug("ChatFrame message listener stopped for user: {}", username);
+        
+        if (listening) {
+            SwingUtilities.invokeLater(() -> {
+                int response = JOptionPane.showConfirmDialog(this,
+                    "Connection lost with server. Return to login?",
+                    "Connection Error",
+                    JOptionPane.YES_NO_OPTION,
+                    JOptionPane.ERROR_MESSAGE);
                 
-                switch (type) {
-                    case "chat":
-                        String sender = json.get("sender").getAsString();
-                        String message = json.get("message").getAsString();
-                        
-                        chatArea.append(sender + ": " + message + "\n");
-                        chatArea.setCaretPosition(chatArea.getDocument().getLength());
-                        
-                        System.out.println("DEBUG: Displayed message from " + sender + 
-                            (sender.equals(this.username) ? " (MY MESSAGE)" : "") + ": " + 
-                            (message.length() > 50 ? message.substring(0, 50) + "..." : message));
-                        break;
-                        
-                    case "system":
-                        String systemMessage = json.get("message").getAsString();
-                        chatArea.append("[System] " + systemMessage + "\n");
-                        chatArea.setCaretPosition(chatArea.getDocument().getLength());
-                        System.out.println("DEBUG: System message: " + systemMessage);
-                        break;
-                        
-                    case "userCount":
-                        int count = json.get("count").getAsInt();
-                        userCountLabel.setText("Connected: " + count);
-                        System.out.println("DEBUG: User count updated: " + count);
-                        break;
-                        
-                    case "loginResponse":
-                    case "registerResponse":
-                        System.out.println("DEBUG: Ignoring " + type + " in chat window");
-                        break;
-                        
-                    case "heartbeat":
-                        System.out.println("DEBUG: Received heartbeat from server");
-                        break;
-                        
-                    default:
-                        System.out.println("DEBUG: Unknown message type: " + type);
-                        chatArea.append("[Unknown message type: " + type + "]\n");
+                if (response == JOptionPane.YES_OPTION) {
+                    logout();
+                }
+            });
+        }
+    }
+    
+    private void showReconnecting(int attempt) {
+        userCountLabel.setText("Reconnecting (attempt " + attempt + ")...");
+        messageField.setEnabled(false);
+        sendButton.setEnabled(false);
+    }
+    
+    /**
+     * Re-enables input and pages in the messages sent while the connection was
+     * down. The server sends the user count again after the resume.
+     */
+    private void sessionResumed() {
+        messageField.setEnabled(true);
+        sendButton.setEnabled(true);
+        messageField.requestFocus();
+        
+        if (historyLoading) {
+            return;
+        }
+        if (messageModel.getNewestId() == 0) {
+            loadOlder();
+        } else {
+            detached = true;
+            loadNewer();
+        }
+    }
+    
+    /**
+     * Formats a frame into pending lines. Runs on the controller's dispatcher
+     * thread; nothing touches Swing until render().
+     */
+    private void processServerMessage(JsonObject json) {
+        try {
+            String type = json.get("type").getAsString();
+            
+            switch (type) {
+                case "chat":
+                    appendPending(toLine(json));
+                    break;
+                    
+                case "system":
+                    String systemMessage = json.get("message").getAsString();
+                    appendPending(new Line(0, "[System] " + systemMessage, true));
+                    logger.debug("System message: {}", systemMessage);
+                    break;
+                    
+                case "userCount":
+                    int count = json.get("count").getAsInt();
+                    synchronized (pendingLines) {
+                        pendingUserCount = count;
+                    }
+                    logger.debug("User count updated: {}", count);
+                    break;
+                    
+                case "loginResponse":
+                case "registerResponse":
+                    logger.debug("Ignoring {} in chat window", type);
+                    break;
+                    
+                case "heartbeat":
+                    logger.trace("Received heartbeat from server");
+                    break;
+                    
+                default:
+                    logger.debug("Unknown message type: {}", type);
+                    appendPending(new Line(0, "[Unknown message type: " + type + "]", true));
+            }
+        } catch (Exception e) {
+            logger.error("Error processing message: {}. Problematic message: {}", e.getMessage(), json, e);
+        }
+    }
+    
+    private static Line toLine(JsonObject chat) {
+        long id = chat.has("id") ? chat.get("id").getAsLong() : 0;
+        String sender = chat.get("sender").getAsString();
+        String message = chat.get("message").getAsString();
+        return new Line(id, sender + ": " + message, false);
+    }
+    
+    private void appendPending(Line line) {
+        synchronized (pendingLines) {
+            pendingLines.add(line);
+        }
+    }
+    
+    private void scheduleRender() {
+        if (renderScheduled.compareAndSet(false, true)) {
+            renderTimer.start();
+        }
+    }
+    
+    /**
+     * Applies everything that arrived since the last tick as one model update.
+     * Runs on the EDT at most once per RENDER_INTERVAL_MS while messages keep
+     * arriving.
+     */
+    private void render() {
+        // Cleared before taking the pending lines, so anything added after the
+        // swap schedules another tick
+        renderScheduled.set(false);
+        
+        List<Line> lines;
+        int userCount;
+        synchronized (pendingLines) {
+            lines = new ArrayList<>(pendingLines);
+            pendingLines.clear();
+            userCount = pendingUserCount;
+            pendingUserCount = -1;
+        }
+        
+        if (detached) {
+            holdLines(lines);
+        } else if (!lines.isEmpty()) {
+            appendLines(lines, isAtBottom());
+        }
+        if (userCount >= 0) {
+            userCountLabel.setText("Connected: " + userCount);
+        }
+    }
+    
+    private void appendLines(List<Line> lines, boolean follow) {
+        int dropped = messageModel.append(lines);
+        if (dropped > 0) {
+            reachedStart = false;
+        }
+        
+        if (follow) {
+            messageList.ensureIndexIsVisible(messageModel.getSize() - 1);
+        } else if (dropped > 0) {
+            // Keep the rows the user is reading in place
+            scrollBar.setValue(scrollBar.getValue() - dropped * messageList.getFixedCellHeight());
+        }
+    }
+    
+    /**
+     * Keeps live lines that arrive while detached, up to one window's worth.
+     * Chat lines pushed out are still in the server's history.
+     */
+    private void holdLines(List<Line> lines) {
+        for (Line line : lines) {
+            if (heldLines.size() == VIEW_CAPACITY) {
+                heldLines.pollFirst();
+            }
+            heldLines.addLast(line);
+        }
+    }
+    
+    private boolean isAtBottom() {
+        return scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+    }
+    
+    private void onScroll() {
+        if (historyLoading || !listening) {
+            return;
+        }
+        if (scrollBar.getValue() == scrollBar.getMinimum() && !reachedStart) {
+            loadOlder();
+        } else if (detached && isAtBottom()) {
+            loadNewer();
+        }
+    }
+    
+    /**
+     * Requests the page of history just above the oldest line shown.
+     */
+    private void loadOlder() {
+        historyLoading = true;
+        requestHistory(controller.historyBeforeAsync(messageModel.getOldestId(), HISTORY_PAGE_SIZE), true);
+    }
+    
+    /**
+     * Requests the page of history just below the newest line shown.
+     */
+    private void loadNewer() {
+        historyLoading = true;
+        requestHistory(controller.historyAfterAsync(messageModel.getNewestId(), HISTORY_PAGE_SIZE), false);
+    }
+    
+    private void requestHistory(CompletableFuture<JsonObject> request, boolean older) {
+        request.whenComplete((response, error) -> {
+            List<Line> lines = new ArrayList<>();
+            boolean hasMore = false;
+            if (error == null && response.has("messages")) {
+                for (JsonElement element : response.getAsJsonArray("messages")) {
+                    lines.add(toLine(element.getAsJsonObject()));
                 }
-            } catch (Exception e) {
-                System.err.println("ERROR processing message: " + e.getMessage());
-                System.err.println("Problematic message: " + jsonMessage);
-                e.printStackTrace();
+                hasMore = response.has("hasMore") && response.get("hasMore").getAsBoolean();
+            } else {
+                logger.error("Error loading history: {}", error != null ? error.getMessage()
+                    : response.has("message") ? response.get("message").getAsString() : "unknown error");
             }
+            
+            boolean more = hasMore;
+            boolean failed = error != null || !response.has("messages");
+            SwingUtilities.invokeLater(() -> {
+                historyLoading = false;
+                if (failed || !listening) {
+                    return;
+                }
+                if (older) {
+                    applyOlder(lines, more);
+                } else {
+                    applyNewer(lines, more);
+                }
+            });
         });
     }
     
+    private void applyOlder(List<Line> lines, boolean hasMore) {
+        int sizeBefore = messageModel.getSize();
+        boolean empty = sizeBefore == 0;
+        int added = messageModel.prepend(lines);
+        if (sizeBefore + added > messageModel.getSize()) {
+            detached = true;
+        }
+        reachedStart = !hasMore;
+        logger.debug("Loaded {} older messages", added);
+        
+        if (empty) {
+            messageList.ensureIndexIsVisible(messageModel.getSize() - 1);
+        } else {
+            // Keep the rows the user was looking at in place above the new ones
+            scrollBar.setValue(scrollBar.getValue() + added * messageList.getFixedCellHeight());
+        }
+    }
+    
+    private void applyNewer(List<Line> lines, boolean hasMore) {
+        boolean atBottom = isAtBottom();
+        appendLines(lines, false);
+        logger.debug("Loaded {} newer messages", lines.size());
+        
+        if (!hasMore) {
+            // Caught up; held lines already in the page are skipped by id
+            detached = false;
+            appendLines(new ArrayList<>(heldLines), atBottom);
+            heldLines.clear();
+        }
+    }
+    
     private void sendMessage() {
         String message = messageField.getText().trim();
         if (!message.isEmpty()) {
-            System.out.println("DEBUG: User " + username + " sending message: " + message);
+            logger.debug("User {} sending message: {}", username, message);
             
             try {
                 controller.sendMessage(message);
                 messageField.setText("");
                 messageField.requestFocus();
-                System.out.println("DEBUG: Message sent successfully from " + username);
+                logger.debug("Message sent successfully from {}", username);
             } catch (ConnectionException e) {
-                System.err.println("ERROR: Failed to send message: " + e.getMessage());
+                logger.error("Failed to send message: {}", e.getMessage());
                 SwingUtilities.invokeLater(() -> {
                     JOptionPane.showMessageDialog(this,
                         "Error sending message: " + e.getMessage(),
@@ -208,14 +457,11 @@ public class ChatFrame extends JFrame {
     }
     
     private void logout() {
-        System.out.println("DEBUG: User " + username + " logging out");
+        logger.debug("User {} logging out", username);
         listening = false;
         
-        if (messageListener != null) {
-            messageListener.interrupt();
-        }
-        
         if (controller != null) {
+            controller.setMessageListener(null);
             controller.logout();
         }
         
@@ -228,10 +474,11 @@ public class ChatFrame extends JFrame {
     
     @Override
     public void dispose() {
-        System.out.println("DEBUG: ChatFrame disposing for user: " + username);
+        logger.debug("ChatFrame disposing for user: {}", username);
         listening = false;
-        if (messageListener != null) {
-            messageListener.interrupt();
+        renderTimer.stop();
+        if (controller != null) {
+            controller.setMessageListener(null);
         }
         super.dispose();
     }
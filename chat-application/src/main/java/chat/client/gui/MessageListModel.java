@@ -0,0 +1,161 @@
+package chat.client.gui;
+
+import javax.swing.AbstractListModel;
+import java.util.List;
+
+/**
+ * List model holding a bounded window of chat lines in a ring. Appending past
+ * the capacity drops the oldest lines and prepending older history drops the
+ * newest, so memory stays fixed however long the session runs. Chat lines
+ * carry the server's message id, which is used to skip duplicates when live
+ * messages and history pages overlap. Must only be used on the EDT.
+ */
+public class MessageListModel extends AbstractListModel<MessageListModel.Line> {
+    
+    public static final class Line {
+        private final long id;
+        private final String text;
+        private final boolean system;
+        
+        public Line(long id, String text, boolean system) {
+            this.id = id;
+            this.text = text;
+            this.system = system;
+        }
+        
+        /** Server message id, or 0 for lines that are not in the server's history. */
+        public long getId() {
+            return id;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public boolean isSystem() {
+            return system;
+        }
+        
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+    
+    private final Line[] lines;
+    private int head;
+    private int size;
+    
+    public MessageListModel(int capacity) {
+        this.lines = new Line[Math.max(1, capacity)];
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public Line getElementAt(int index) {
+        return lines[(head + index) % lines.length];
+    }
+    
+    public int getCapacity() {
+        return lines.length;
+    }
+    
+    /** Id of the oldest line that has one, or 0. */
+    public long getOldestId() {
+        for (int i = 0; i < size; i++) {
+            long id = getElementAt(i).getId();
+            if (id > 0) {
+                return id;
+            }
+        }
+        return 0;
+    }
+    
+    /** Id of the newest line that has one, or 0. */
+    public long getNewestId() {
+        for (int i = size - 1; i >= 0; i--) {
+            long id = getElementAt(i).getId();
+            if (id > 0) {
+                return id;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Appends lines at the bottom, skipping chat lines already shown, and drops
+     * lines from the top if the window overflows. Returns the number of lines
+     * dropped from the top.
+     */
+    public int append(List<Line> incoming) {
+        long newestId = getNewestId();
+        int start = Math.max(0, incoming.size() - lines.length);
+        int oldSize = size;
+        int added = 0;
+        int dropped = 0;
+        
+        for (int i = start; i < incoming.size(); i++) {
+            Line line = incoming.get(i);
+            if (line.getId() > 0 && line.getId() <= newestId) {
+                continue;
+            }
+            if (size == lines.length) {
+                head = (head + 1) % lines.length;
+                size--;
+                dropped++;
+            }
+            lines[(head + size) % lines.length] = line;
+            size++;
+            added++;
+        }
+        
+        // At most one window's worth is added, so only pre-existing rows are dropped
+        if (dropped > 0) {
+            fireIntervalRemoved(this, 0, dropped - 1);
+        }
+        if (added > 0) {
+            fireIntervalAdded(this, oldSize - dropped, size - 1);
+        }
+        return dropped;
+    }
+    
+    /**
+     * Inserts older lines (oldest first) at the top, skipping chat lines that
+     * are not older than what is already shown, and drops lines from the bottom
+     * if the window overflows. Returns the number of lines inserted.
+     */
+    public int prepend(List<Line> incoming) {
+        long oldestId = getOldestId();
+        int oldSize = size;
+        int added = 0;
+        int dropped = 0;
+        
+        // Walk newest to oldest so each line goes directly above the previous one
+        for (int i = incoming.size() - 1; i >= 0 && added < lines.length; i--) {
+            Line line = incoming.get(i);
+            if (oldestId > 0 && line.getId() > 0 && line.getId() >= oldestId) {
+                continue;
+            }
+            if (size == lines.length) {
+                size--;
+                dropped++;
+            }
+            head = (head - 1 + lines.length) % lines.length;
+            lines[head] = line;
+            size++;
+            added++;
+        }
+        
+        if (dropped > 0) {
+            fireIntervalRemoved(this, oldSize - dropped, oldSize - 1);
+        }
+        if (added > 0) {
+            fireIntervalAdded(this, 0, added - 1);
+        }
+        return added;
+    }
+}
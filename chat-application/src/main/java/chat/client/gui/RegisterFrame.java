@@ -183,8 +183,6 @@ public class RegisterFrame extends JFrame {
         
         new Thread(() -> {
             try {
-                controller.clearMessageQueue();
-                
                 boolean connected = controller.connect();
                 
                 if (!connected) {
@@ -200,8 +198,6 @@ public class RegisterFrame extends JFrame {
                     showStatus("Registering account...", Color.BLUE);
                 });
                 
-                Thread.sleep(500);
-                
                 String response = controller.register(username, password);
                 
                 SwingUtilities.invokeLater(() -> {
@@ -0,0 +1,142 @@
+package chat.loadtest;
+
+import com.google.gson.JsonObject;
+import chat.client.ClientController;
+import chat.client.ServerMessageListener;
+import chat.client.exceptions.ConnectionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One simulated user, driving a real ClientController: it registers, logs in,
+ * sends chat messages when told to and logs out. Every chat message carries
+ * its send time, so each bot that receives it can record the end-to-end
+ * delivery latency. All bots run in one JVM, so System.nanoTime() is comparable
+ * between sender and receiver.
+ */
+class Bot implements ServerMessageListener {
+    static final String MESSAGE_PREFIX = "lt ";
+    
+    private final int id;
+    private final String username;
+    private final String password;
+    private final LoadStats stats;
+    private final String padding;
+    private final ClientController controller;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean active;
+    
+    Bot(int id, String userPrefix, String host, int port, int messageSize, LoadStats stats) {
+        this.id = id;
+        this.username = userPrefix + id;
+        this.password = "Load-" + userPrefix + id + "!";
+        this.stats = stats;
+        this.padding = "x".repeat(Math.max(0, messageSize - 40));
+        this.controller = new ClientController(host, port);
+        controller.setAutoReconnect(false);
+    }
+    
+    /**
+     * Connects, registers (an existing account from an earlier run is fine) and
+     * logs in. Returns false and counts the error if any step fails.
+     */
+    boolean start() {
+        try {
+            long start = System.nanoTime();
+            controller.connect();
+            stats.connectLatency.record(System.nanoTime() - start);
+        } catch (ConnectionException e) {
+            stats.error("connect");
+            return false;
+        }
+        
+        try {
+            long start = System.nanoTime();
+            JsonObject registered = controller.registerAsync(username, password).get();
+            stats.registerLatency.record(System.nanoTime() - start);
+            if (!isSuccess(registered) && !(registered.has("message")
+                    && registered.get("message").getAsString().contains("already exists"))) {
+                stats.error("register");
+                controller.disconnect();
+                return false;
+            }
+            
+            start = System.nanoTime();
+            JsonObject loggedIn = controller.loginAsync(username, password).get();
+            stats.loginLatency.record(System.nanoTime() - start);
+            if (!isSuccess(loggedIn)) {
+                stats.error("login");
+                controller.disconnect();
+                return false;
+            }
+        } catch (ExecutionException e) {
+            stats.error(e.getCause() instanceof ConnectionException ? "connect" : "timeout");
+            controller.disconnect();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            controller.disconnect();
+            return false;
+        }
+        
+        active = true;
+        controller.setMessageListener(this);
+        return true;
+    }
+    
+    private static boolean isSuccess(JsonObject response) {
+        return response.has("success") && response.get("success").getAsBoolean();
+    }
+    
+    void sendChat() {
+        if (!active) {
+            return;
+        }
+        String message = MESSAGE_PREFIX + System.nanoTime() + " " + id + ":" + sequence.incrementAndGet()
+            + " " + padding;
+        try {
+            controller.sendMessage(message);
+            stats.sent.increment();
+        } catch (ConnectionException e) {
+            stats.error("send");
+        }
+    }
+    
+    void stop() {
+        if (active) {
+            active = false;
+            controller.logout();
+        }
+    }
+    
+    boolean isActive() {
+        return active;
+    }
+    
+    @Override
+    public void onMessage(JsonObject message) {
+        if (!"chat".equals(message.get("type").getAsString())) {
+            return;
+        }
+        String text = message.get("message").getAsString();
+        if (!text.startsWith(MESSAGE_PREFIX)) {
+            return;
+        }
+        
+        int end = text.indexOf(' ', MESSAGE_PREFIX.length());
+        try {
+            long sentAt = Long.parseLong(text.substring(MESSAGE_PREFIX.length(), end));
+            stats.delivered(System.nanoTime() - sentAt);
+        } catch (RuntimeException e) {
+            stats.error("malformed");
+        }
+    }
+    
+    @Override
+    public void onDisconnected() {
+        if (active) {
+            active = false;
+            stats.error("disconnected");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package chat.loadtest;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+import chat.metrics.LatencyHistogram;
+import chat.metrics.PipelineMetrics;
+import chat.server.ChatServer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Headless load generator. Starts {@code users} bots over {@code rampSeconds},
+ * has them send {@code rate} chat messages per second in total for
+ * {@code durationSeconds}, then logs them out and reports delivery latency
+ * percentiles, throughput and errors. Each run appends one line to the
+ * results file so runs can be compared over time.
+ *
+ * <p>Options are {@code key=value} arguments, for example
+ * {@code users=2000 rate=200 durationSeconds=120 embedded=true}. With
+ * {@code embedded=true} a ChatServer is started in this JVM with admission
+ * limits raised to fit the bots; against a separate server, raise
+ * {@code server.maxConnectionsPerIp} there first.
+ */
+public class LoadGenerator {
+    private static final String RESULTS_HEADER = "timestamp,users,activeUsers,rate,durationSeconds,messageSize," +
+        "sent,deliveries,sentPerSecond,deliveriesPerSecond,deliveryRatio," +
+        "p50Ms,p99Ms,p999Ms,maxMs,loginP50Ms,loginP99Ms,errors";
+    private static final long STATUS_INTERVAL_SECONDS = 5;
+    
+    private final Properties options;
+    private final String host;
+    private final int port;
+    private final int users;
+    private final int rampSeconds;
+    private final int durationSeconds;
+    private final double rate;
+    private final int messageSize;
+    private final int drainSeconds;
+    private final String userPrefix;
+    private final String resultsFile;
+    private final int connectThreads;
+    private final LoadStats stats = new LoadStats();
+    private final List<Bot> bots = Collections.synchronizedList(new ArrayList<>());
+    private final PrintStream console = System.out;
+    private PipelineMetrics pipelineMetrics;
+    
+    public LoadGenerator(Properties options) {
+        this.options = options;
+        this.host = options.getProperty("host", "localhost");
+        this.port = intOption("port", 8080);
+        this.users = intOption("users", 500);
+        this.rampSeconds = intOption("rampSeconds", 20);
+        this.durationSeconds = intOption("durationSeconds", 60);
+        this.rate = Double.parseDouble(options.getProperty("rate", "50"));
+        this.messageSize = intOption("messageSize", 100);
+        this.drainSeconds = intOption("drainSeconds", 3);
+        this.userPrefix = options.getProperty("userPrefix", "bot");
+        this.resultsFile = options.getProperty("results", "loadtest-results.csv");
+        this.connectThreads = intOption("connectThreads", 32);
+    }
+    
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(options.getProperty(key, String.valueOf(defaultValue)).trim());
+    }
+    
+    public void run() throws Exception {
+        ChatServer server = null;
+        if (Boolean.parseBoolean(options.getProperty("embedded", "false"))) {
+            server = startEmbeddedServer();
+            pipelineMetrics = server.getPipelineMetrics();
+        }
+        
+        // Hundreds of bots logging their connects at INFO would bury this report
+        Level clientLevel = Level.toLevel(options.getProperty("clientLogLevel", "WARN"));
+        ((Logger) LoggerFactory.getLogger("chat.client")).setLevel(clientLevel);
+        
+        console.printf("Load test: %d users over %d s, %.1f msg/s for %d s against %s:%d%n",
+            users, rampSeconds, rate, durationSeconds, host, port);
+        
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), daemonThreads("LoadScheduler"));
+        ExecutorService connector = Executors.newFixedThreadPool(connectThreads, daemonThreads("LoadConnector"));
+        try {
+            rampUp(scheduler, connector);
+            measure(scheduler);
+        } finally {
+            scheduler.shutdownNow();
+            connector.shutdownNow();
+            stopBots();
+            if (server != null) {
+                server.stop();
+            }
+        }
+        
+        report();
+    }
+    
+    private ChatServer startEmbeddedServer() {
+        int limit = users + 100;
+        setDefaultProperty("server.maxConnections", limit);
+        setDefaultProperty("server.maxConnectionsPerIp", limit);
+        setDefaultProperty("server.maxPendingAuth", limit);
+        setDefaultProperty("server.port", port);
+        // The server logs every broadcast at DEBUG, which would dominate the run
+        Level level = Level.toLevel(options.getProperty("serverLogLevel", "WARN"));
+        ((Logger) LoggerFactory.getLogger("chat.server")).setLevel(level);
+        ((Logger) LoggerFactory.getLogger("chat.server.ClientHandler")).setLevel(level);
+        
+        ChatServer server = new ChatServer();
+        server.start();
+        if (!server.isRunning()) {
+            throw new IllegalStateException("Embedded server did not start on port " + port);
+        }
+        return server;
+    }
+    
+    private static void setDefaultProperty(String key, int value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, String.valueOf(value));
+        }
+    }
+    
+    /**
+     * Starts the bots at evenly spaced times over the ramp, then waits for all
+     * of them to finish logging in.
+     */
+    private void rampUp(ScheduledExecutorService scheduler, ExecutorService connector) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(users);
+        long spacingNanos = users == 0 ? 0 : TimeUnit.SECONDS.toNanos(rampSeconds) / users;
+        
+        for (int i = 0; i < users; i++) {
+            int id = i;
+            scheduler.schedule(() -> connector.execute(() -> {
+                try {
+                    Bot bot = new Bot(id, userPrefix, host, port, messageSize, stats);
+                    if (bot.start()) {
+                        bots.add(bot);
+                    }
+                } finally {
+                    started.countDown();
+                }
+            }), spacingNanos * i, TimeUnit.NANOSECONDS);
+        }
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(rampSeconds + 60);
+        while (!started.await(STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+            console.printf("  ramp-up: %d/%d logged in, %d errors%n", bots.size(), users, stats.getErrorCount());
+            if (System.nanoTime() > deadline) {
+                console.println("  ramp-up did not finish in time, continuing with the bots that are up");
+                break;
+            }
+        }
+        console.printf("Ramp-up done: %d/%d users logged in%n", bots.size(), users);
+    }
+    
+    /**
+     * Has every bot send at the same fixed rate, adding up to {@code rate}
+     * messages per second, for the measured duration.
+     */
+    private void measure(ScheduledExecutorService scheduler) throws InterruptedException {
+        List<Bot> senders = snapshotBots();
+        long sendIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) * senders.size() / Math.max(rate, 0.001));
+        stats.resetChat();
+        if (pipelineMetrics != null) {
+            pipelineMetrics.reset();
+        }
+        for (Bot bot : senders) {
+            // Random phase, so the bots' sends are spread over the interval
+            long offset = ThreadLocalRandom.current().nextLong(Math.max(1, sendIntervalNanos));
+            scheduler.scheduleAtFixedRate(bot::sendChat, offset, Math.max(1, sendIntervalNanos), TimeUnit.NANOSECONDS);
+        }
+        
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(STATUS_INTERVAL_SECONDS),
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            console.printf("  %3d s: sent %d, delivered %d, p99 %.2f ms, errors %d%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), stats.sent.sum(),
+                stats.deliveries.sum(), stats.deliveryLatency.getValueAtPercentileMillis(99),
+                stats.getErrorCount());
+        }
+        
+        // Stop sending, then give messages in flight time to arrive
+        scheduler.shutdownNow();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(drainSeconds));
+    }
+    
+    private List<Bot> snapshotBots() {
+        synchronized (bots) {
+            return new ArrayList<>(bots);
+        }
+    }
+    
+    private void stopBots() {
+        for (Bot bot : snapshotBots()) {
+            bot.stop();
+        }
+    }
+    
+    private void report() throws IOException {
+        int active = bots.size();
+        long sent = stats.sent.sum();
+        long deliveries = stats.deliveries.sum();
+        // Every message is broadcast to every logged-in bot, the sender included
+        double ratio = sent == 0 || active == 0 ? 0 : (double) deliveries / (sent * (double) active);
+        LatencyHistogram latency = stats.deliveryLatency;
+        
+        console.println();
+        console.println("Results");
+        console.printf("  users:        %d requested, %d logged in%n", users, active);
+        console.printf("  sent:         %d (%.1f/s)%n", sent, (double) sent / durationSeconds);
+        console.printf("  deliveries:   %d (%.1f/s), %.2f%% of expected%n",
+            deliveries, (double) deliveries / durationSeconds, ratio * 100);
+        console.printf("  latency (ms): p50 %.2f  p99 %.2f  p99.9 %.2f  max %.2f  mean %.2f%n",
+            latency.getValueAtPercentileMillis(50), latency.getValueAtPercentileMillis(99),
+            latency.getValueAtPercentileMillis(99.9), latency.getMaxNanos() / 1_000_000.0,
+            latency.getMeanNanos() / 1_000_000.0);
+        printOperation("connect", stats.connectLatency);
+        printOperation("register", stats.registerLatency);
+        printOperation("login", stats.loginLatency);
+        console.printf("  errors:       %d %s%n", stats.getErrorCount(), stats.getErrors());
+        if (pipelineMetrics != null) {
+            console.printf("  server stages (%.1f%% of messages sampled):%s%n",
+                pipelineMetrics.getSampleRate() * 100, pipelineMetrics.summary());
+        }
+        
+        appendResults(active, sent, deliveries, ratio);
+    }
+    
+    private void printOperation(String name, LatencyHistogram histogram) {
+        console.printf("  %-13s %d, p50 %.2f ms, p99 %.2f ms%n", name + ":", histogram.getCount(),
+            histogram.getValueAtPercentileMillis(50), histogram.getValueAtPercentileMillis(99));
+    }
+    
+    private void appendResults(int active, long sent, long deliveries, double ratio) throws IOException {
+        Path path = Paths.get(resultsFile);
+        boolean newFile = !Files.exists(path) || Files.size(path) == 0;
+        LatencyHistogram latency = stats.deliveryLatency;
+        
+        String line = String.format(Locale.ROOT,
+            "%s,%d,%d,%.1f,%d,%d,%d,%d,%.1f,%.1f,%.4f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d%n",
+            Instant.now(), users, active, rate, durationSeconds, messageSize, sent, deliveries,
+            (double) sent / durationSeconds, (double) deliveries / durationSeconds, ratio,
+            latency.getValueAtPercentileMillis(50), latency.getValueAtPercentileMillis(99),
+            latency.getValueAtPercentileMillis(99.9), latency.getMaxNanos() / 1_000_000.0,
+            stats.loginLatency.getValueAtPercentileMillis(50), stats.loginLatency.getValueAtPercentileMillis(99),
+            stats.getErrorCount());
+        
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (newFile) {
+                writer.write(RESULTS_HEADER + System.lineSeparator());
+            }
+            writer.write(line);
+        }
+        console.println("Results appended to " + path.toAbsolutePath());
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Ignoring argument '" + arg + "', expected key=value");
+                continue;
+            }
+            options.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+}
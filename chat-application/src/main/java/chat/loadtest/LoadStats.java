@@ -0,0 +1,53 @@
+package chat.loadtest;
+
+import chat.metrics.LatencyHistogram;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms shared by all bots of a run.
+ */
+class LoadStats {
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    final LatencyHistogram registerLatency = new LatencyHistogram();
+    final LatencyHistogram loginLatency = new LatencyHistogram();
+    final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    final LongAdder sent = new LongAdder();
+    final LongAdder deliveries = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    
+    void delivered(long latencyNanos) {
+        deliveries.increment();
+        deliveryLatency.record(latencyNanos);
+    }
+    
+    void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+    }
+    
+    long getErrorCount() {
+        long total = 0;
+        for (LongAdder count : errors.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+    
+    Map<String, Long> getErrors() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        errors.forEach((kind, count) -> snapshot.put(kind, count.sum()));
+        return snapshot;
+    }
+    
+    /**
+     * Clears the chat counters at the start of the measured phase, so messages
+     * sent during ramp-up do not count. Login and error figures are kept.
+     */
+    void resetChat() {
+        sent.reset();
+        deliveries.reset();
+        deliveryLatency.reset();
+    }
+}
@@ -0,0 +1,17 @@
+package chat.metrics;
+
+/**
+ * Stage timestamps of one sampled message on its way through the server, from
+ * System.nanoTime(). They are set by the thread that reads and broadcasts the
+ * message before it is queued for the recipients, whose sender threads then
+ * see them through the queue.
+ */
+public final class MessageTrace {
+    final long receivedNanos;
+    long parsedNanos;
+    long fanOutStartNanos;
+    
+    MessageTrace(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+}
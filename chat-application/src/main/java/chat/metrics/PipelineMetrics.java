@@ -0,0 +1,120 @@
+package chat.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-stage latency of messages through the server: read, parse, fan-out to
+ * the recipients' queues, wait in each queue and the socket write. A sampled
+ * fraction of inbound frames gets a {@link MessageTrace}; frames that are not
+ * sampled carry null and cost one random number. The histograms can be read
+ * at any time while the server runs.
+ */
+public class PipelineMetrics {
+    public enum Stage {
+        /** From the line being read to the parsed JSON. */
+        PARSE,
+        /** From parsed to the start of the fan-out: handling, history and the wait for the broadcaster. */
+        HANDLE,
+        /** Copying the client list and queueing the message for every recipient. */
+        FAN_OUT,
+        /** From the start of the fan-out until a recipient's sender takes it. */
+        QUEUE,
+        /** Writing and flushing to one recipient's socket. */
+        WRITE,
+        /** From the line being read until it is written to one recipient. */
+        TOTAL
+    }
+    
+    private final double sampleRate;
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    
+    /**
+     * @param sampleRate fraction of inbound frames to trace, from 0 (none) to
+     *                   1 (all)
+     */
+    public PipelineMetrics(double sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+    
+    /**
+     * Starts a trace for a frame that was just read, or returns null if this
+     * frame is not sampled.
+     */
+    public MessageTrace begin() {
+        if (sampleRate == 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return null;
+        }
+        return new MessageTrace(System.nanoTime());
+    }
+    
+    public void parsed(MessageTrace trace) {
+        if (trace != null) {
+            trace.parsedNanos = System.nanoTime();
+            record(Stage.PARSE, trace.parsedNanos - trace.receivedNanos);
+        }
+    }
+    
+    public void fanOutStarted(MessageTrace trace) {
+        if (trace != null) {
+            trace.fanOutStartNanos = System.nanoTime();
+            record(Stage.HANDLE, trace.fanOutStartNanos - trace.parsedNanos);
+        }
+    }
+    
+    public void fanOutCompleted(MessageTrace trace) {
+        if (trace != null) {
+            record(Stage.FAN_OUT, System.nanoTime() - trace.fanOutStartNanos);
+        }
+    }
+    
+    /**
+     * Records one recipient's queue wait and write. {@code dequeuedNanos} is
+     * when its sender took the message from the queue.
+     */
+    public void delivered(MessageTrace trace, long dequeuedNanos) {
+        if (trace == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        record(Stage.QUEUE, dequeuedNanos - trace.fanOutStartNanos);
+        record(Stage.WRITE, now - dequeuedNanos);
+        record(Stage.TOTAL, now - trace.receivedNanos);
+    }
+    
+    private void record(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+    
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+    
+    public double getSampleRate() {
+        return sampleRate;
+    }
+    
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+    
+    /**
+     * One line per stage with the sample count and p50/p99/max in milliseconds.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms.get(stage);
+            summary.append(String.format("%n  %-8s n=%d p50=%.3f p99=%.3f max=%.3f ms", stage,
+                histogram.getCount(), histogram.getValueAtPercentileMillis(50),
+                histogram.getValueAtPercentileMillis(99), histogram.getMaxNanos() / 1_000_000.0));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package chat.metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * Builds a page in the Prometheus text exposition format (version 0.0.4).
+ * Latencies are exported in seconds, as histograms with fixed bucket bounds
+ * from 100 µs to 10 s taken from a LatencyHistogram.
+ */
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] BUCKET_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    private static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length];
+    
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = Math.round(BUCKET_SECONDS[i] * 1_000_000_000L);
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_SECONDS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+    
+    private final StringBuilder out = new StringBuilder(8192);
+    
+    public PrometheusWriter counter(String name, String help, double value) {
+        return header(name, "counter", help).sample(name, null, value);
+    }
+    
+    public PrometheusWriter gauge(String name, String help, double value) {
+        return header(name, "gauge", help).sample(name, null, value);
+    }
+    
+    public PrometheusWriter histogram(String name, String help, LatencyHistogram histogram) {
+        return header(name, "histogram", help).histogramSamples(name, null, histogram);
+    }
+    
+    /**
+     * Starts a metric family. Its samples follow with {@link #sample} or
+     * {@link #histogramSamples}.
+     */
+    public PrometheusWriter header(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+    
+    /**
+     * Writes one sample. {@code labels} is null or the label pairs without
+     * braces, e.g. {@code stage="parse"}.
+     */
+    public PrometheusWriter sample(String name, String labels, double value) {
+        out.append(name);
+        if (labels != null && !labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+    
+    public PrometheusWriter histogramSamples(String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels != null && !labels.isEmpty() ? labels + "," : "";
+        long[] cumulative = histogram.getCumulativeCounts(BUCKET_NANOS);
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            sample(name + "_bucket", prefix + "le=\"" + BUCKET_LABELS[i] + "\"", cumulative[i]);
+        }
+        long count = cumulative[BUCKET_SECONDS.length];
+        sample(name + "_bucket", prefix + "le=\"+Inf\"", count);
+        sample(name + "_sum", labels, histogram.getSumNanos() / 1_000_000_000.0);
+        sample(name + "_count", labels, count);
+        return this;
+    }
+    
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+    
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
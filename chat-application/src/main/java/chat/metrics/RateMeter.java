@@ -0,0 +1,54 @@
+package chat.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and reports their rate as a one-minute exponentially weighted
+ * moving average, updated in 5-second ticks. Marking is a single LongAdder
+ * increment; ticks that are due are applied when the rate is read, so no
+ * timer thread is needed.
+ */
+public class RateMeter {
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60);
+    
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile double ratePerNanos;
+    private volatile boolean initialized;
+    
+    public void mark() {
+        count.increment();
+        uncounted.increment();
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public double getRatePerSecond() {
+        tickIfDue();
+        return ratePerNanos * TimeUnit.SECONDS.toNanos(1);
+    }
+    
+    private void tickIfDue() {
+        long last = lastTick.get();
+        long ticks = (System.nanoTime() - last) / TICK_NANOS;
+        if (ticks == 0 || !lastTick.compareAndSet(last, last + ticks * TICK_NANOS)) {
+            return;
+        }
+        
+        // Events since the last tick all count towards the first one due;
+        // any further ticks only decay the rate
+        double instant = (double) uncounted.sumThenReset() / TICK_NANOS;
+        double rate = initialized ? ratePerNanos + ALPHA * (instant - ratePerNanos) : instant;
+        initialized = true;
+        for (long i = 1; i < ticks; i++) {
+            rate -= ALPHA * rate;
+        }
+        ratePerNanos = rate;
+    }
+}
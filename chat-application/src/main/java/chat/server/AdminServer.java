@@ -0,0 +1,211 @@
+package chat.server;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chat.metrics.LatencyHistogram;
+import chat.metrics.PipelineMetrics;
+import chat.metrics.PrometheusWriter;
+import chat.server.store.AbstractJournaledUserStore;
+import chat.server.store.UserStore;
+
+/**
+ * Admin HTTP listener on the JDK's built-in HTTP server:
+ * <ul>
+ *   <li>{@code /metrics} - Prometheus text format</li>
+ *   <li>{@code /health} - 200 while the server is running</li>
+ *   <li>{@code /ready} - 200 while it is running and not shedding new connections</li>
+ * </ul>
+ * Requests are served by a small pool of their own, so scrapes never take a
+ * thread from chat traffic.
+ */
+class AdminServer {
+    private static final Logger logger = LoggerFactory.getLogger(AdminServer.class);
+    
+    private final ChatServer server;
+    private final String host;
+    private final int port;
+    private final int threads;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+    
+    AdminServer(ChatServer server, String host, int port, int threads) {
+        this.server = server;
+        this.host = host;
+        this.port = port;
+        this.threads = Math.max(1, threads);
+    }
+    
+    void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "AdminHttp-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/metrics", handler(this::handleMetrics));
+        httpServer.createContext("/health", handler(this::handleHealth));
+        httpServer.createContext("/ready", handler(this::handleReady));
+        httpServer.start();
+        logger.info("Admin HTTP listener started on {}:{}", host, port);
+    }
+    
+    void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdownNow();
+            logger.info("Admin HTTP listener stopped");
+        }
+    }
+    
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+    
+    private static HttpHandler handler(Handler handler) {
+        return exchange -> {
+            try (exchange) {
+                String method = exchange.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Error serving {}: {}", exchange.getRequestURI(), e.getMessage());
+            }
+        };
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+        if (!head) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        }
+    }
+    
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        boolean up = server.isRunning();
+        JsonObject body = new JsonObject();
+        body.addProperty("status", up ? "UP" : "DOWN");
+        respond(exchange, up ? 200 : 503, "application/json", body.toString());
+    }
+    
+    private void handleReady(HttpExchange exchange) throws IOException {
+        String reason = null;
+        if (!server.isRunning()) {
+            reason = "not running";
+        } else if (server.getAdmissionControl().isOverloaded()) {
+            reason = "shedding new connections";
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("status", reason == null ? "READY" : "NOT_READY");
+        if (reason != null) {
+            body.addProperty("reason", reason);
+        }
+        respond(exchange, reason == null ? 200 : 503, "application/json", body.toString());
+    }
+    
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        PrometheusWriter metrics = new PrometheusWriter();
+        writeConnectionMetrics(metrics);
+        writeMessageMetrics(metrics);
+        writeAuthMetrics(metrics);
+        writePersistenceMetrics(metrics);
+        respond(exchange, 200, PrometheusWriter.CONTENT_TYPE, metrics.toString());
+    }
+    
+    private void writeConnectionMetrics(PrometheusWriter metrics) {
+        ChatServerStats stats = server.getStats();
+        AdmissionControl admission = server.getAdmissionControl();
+        metrics.gauge("chat_connections", "Open client connections", admission.getConnectionCount())
+            .gauge("chat_authenticated_users", "Logged-in users", server.getConnectedUserCount())
+            .gauge("chat_pending_auth_connections", "Connections that have not logged in yet",
+                admission.getPendingAuthCount())
+            .counter("chat_connections_accepted_total", "Connections accepted by the server socket",
+                stats.accepted.getCount())
+            .counter("chat_connections_rejected_total", "Connections turned away by admission control",
+                stats.getRejectedConnections())
+            .gauge("chat_overloaded", "1 while new connections are being shed",
+                admission.isOverloaded() ? 1 : 0);
+    }
+    
+    private void writeMessageMetrics(PrometheusWriter metrics) {
+        ChatServerStats stats = server.getStats();
+        metrics.counter("chat_messages_received_total", "Frames received from clients", stats.messagesIn.getCount())
+            .counter("chat_messages_sent_total", "Frames written to clients", stats.messagesOut.getCount())
+            .gauge("chat_outbound_queued_messages", "Frames waiting in client send queues",
+                server.getAdmissionControl().getQueuedMessageCount())
+            .histogram("chat_broadcast_fanout_seconds", "Time to queue one broadcast for every recipient",
+                stats.fanOut);
+        
+        PipelineMetrics pipeline = server.getPipelineMetrics();
+        metrics.header("chat_message_stage_seconds", "histogram",
+            "Latency of sampled chat messages per pipeline stage");
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            metrics.histogramSamples("chat_message_stage_seconds",
+                "stage=\"" + stage.name().toLowerCase() + "\"", pipeline.getHistogram(stage));
+        }
+    }
+    
+    private void writeAuthMetrics(PrometheusWriter metrics) {
+        UserRepository repository = server.getUserRepository();
+        AuthExecutor auth = server.getAuthExecutor();
+        LatencyHistogram logins = repository.getLoginLatency();
+        LatencyHistogram registrations = repository.getRegisterLatency();
+        metrics.header("chat_logins_total", "counter", "Login attempts by result")
+            .sample("chat_logins_total", "result=\"success\"", logins.getCount() - repository.getFailedLogins())
+            .sample("chat_logins_total", "result=\"failure\"", repository.getFailedLogins())
+            .header("chat_registrations_total", "counter", "Registration attempts by result")
+            .sample("chat_registrations_total", "result=\"success\"",
+                registrations.getCount() - repository.getFailedRegistrations())
+            .sample("chat_registrations_total", "result=\"failure\"", repository.getFailedRegistrations())
+            .histogram("chat_login_duration_seconds", "Login time including password hashing", logins)
+            .histogram("chat_register_duration_seconds", "Registration time including hashing and storing",
+                registrations)
+            .gauge("chat_auth_queue_depth", "Login and registration requests waiting for a worker",
+                auth.getQueueDepth())
+            .gauge("chat_auth_active_workers", "Workers hashing passwords", auth.getActiveCount())
+            .counter("chat_auth_rejected_total", "Auth requests rejected because the queue was full",
+                auth.getRejectedCount())
+            .counter("chat_auth_expired_total", "Auth requests dropped after their deadline",
+                auth.getExpiredCount())
+            .counter("chat_login_throttled_total", "Login attempts refused by the throttle",
+                server.getLoginThrottle().getThrottledCount());
+    }
+    
+    private void writePersistenceMetrics(PrometheusWriter metrics) {
+        UserRepository repository = server.getUserRepository();
+        UserStore store = repository.getStore();
+        metrics.gauge("chat_users", "Registered users", repository.getUserCount())
+            .histogram("chat_user_store_write_seconds", "User store insert and update time, until durable",
+                repository.getStoreWriteLatency())
+            .counter("chat_user_store_write_errors_total", "User store writes that failed",
+                repository.getFailedStoreWrites());
+        if (store instanceof AbstractJournaledUserStore journaled) {
+            metrics.counter("chat_user_store_journal_commits_total", "Group commits to the user journal",
+                journaled.getJournalCommitCount());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package chat.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdmissionControl {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+    public enum Decision {
+        ADMITTED,
+        SERVER_FULL,
+        TOO_MANY_FROM_ADDRESS,
+        OVERLOADED
+    }
+
+    private final int maxConnections;
+    private final int maxConnectionsPerIp;
+    private final int maxPendingAuth;
+    private final int shedQueueDepth;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger pendingAuth = new AtomicInteger();
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private final Map<String, Integer> connectionsPerIp = new ConcurrentHashMap<>();
+
+    public AdmissionControl(int maxConnections, int maxConnectionsPerIp, int maxPendingAuth, int shedQueueDepth) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.maxPendingAuth = maxPendingAuth;
+        this.shedQueueDepth = shedQueueDepth;
+    }
+
+    public Decision tryAdmit(String ip) {
+        if (isOverloaded()) {
+            return Decision.OVERLOADED;
+        }
+
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            return Decision.SERVER_FULL;
+        }
+
+        int perIp = connectionsPerIp.merge(ip, 1, Integer::sum);
+        if (perIp > maxConnectionsPerIp) {
+            releaseIp(ip);
+            connections.decrementAndGet();
+            return Decision.TOO_MANY_FROM_ADDRESS;
+        }
+
+        pendingAuth.incrementAndGet();
+        return Decision.ADMITTED;
+    }
+
+    public void release(String ip, boolean wasPendingAuth) {
+        if (wasPendingAuth) {
+            pendingAuth.decrementAndGet();
+        }
+        connections.decrementAndGet();
+        releaseIp(ip);
+    }
+
+    private void releaseIp(String ip) {
+        connectionsPerIp.computeIfPresent(ip, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    public void authCompleted() {
+        pendingAuth.decrementAndGet();
+    }
+
+    public void messageQueued() {
+        queuedMessages.incrementAndGet();
+    }
+
+    public void messageDequeued() {
+        queuedMessages.decrementAndGet();
+    }
+
+    /**
+     * Whether new connections are being shed because too many are still
+     * logging in or too many messages are queued.
+     */
+    public boolean isOverloaded() {
+        return pendingAuth.get() >= maxPendingAuth || queuedMessages.get() >= shedQueueDepth;
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getPendingAuthCount() {
+        return pendingAuth.get();
+    }
+
+    public int getQueuedMessageCount() {
+        return queuedMessages.get();
+    }
+
+    public void logStatus() {
+        logger.debug("Admission status - Connections: {}/{}, Pending auth: {}/{}, Queued messages: {}/{}, Addresses: {}",
+            connections.get(), maxConnections, pendingAuth.get(), maxPendingAuth,
+            queuedMessages.get(), shedQueueDepth, connectionsPerIp.size());
+    }
+}
@@ -0,0 +1,135 @@
+package chat.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.server.exceptions.AuthenticationException;
+
+public class AuthExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(AuthExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final long deadlineNanos;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder totalHashNanos = new LongAdder();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+    private final LongAdder totalQueueNanos = new LongAdder();
+
+    public AuthExecutor(double coreFraction, int queueCapacity, long deadlineMillis) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, (int) Math.round(cores * coreFraction));
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity), true),
+            r -> {
+                Thread thread = new Thread(r, "AuthWorker-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.prestartAllCoreThreads();
+
+        logger.info("Auth executor started with {} threads ({} cores), queue capacity {}, deadline {} ms",
+            threads, cores, queueCapacity, deadlineMillis);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long enqueuedAt = System.nanoTime();
+
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                totalQueueNanos.add(startedAt - enqueuedAt);
+                if (startedAt - enqueuedAt > deadlineNanos) {
+                    expired.increment();
+                    result.completeExceptionally(
+                        new AuthenticationException("Authentication timed out. Server is busy, try again later"));
+                    return;
+                }
+
+                T value = null;
+                Throwable failure = null;
+                try {
+                    value = task.call();
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    long elapsed = System.nanoTime() - startedAt;
+                    totalHashNanos.add(elapsed);
+                    maxHashNanos.accumulateAndGet(elapsed, Math::max);
+                    completed.increment();
+                }
+                // Completed only after the hash is timed, so dependent stages
+                // that run on this thread are not counted as hashing
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(new AuthenticationException("Server is busy, try again later"));
+        }
+        return result;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public double getAverageHashMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : totalHashNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxHashMillis() {
+        return maxHashNanos.get() / 1_000_000.0;
+    }
+
+    public double getAverageQueueMillis() {
+        long count = completed.sum() + expired.sum();
+        return count == 0 ? 0 : totalQueueNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public void logStatus() {
+        logger.debug("Auth status - Queue: {}, Active: {}/{}, Completed: {}, Rejected: {}, Expired: {}, " +
+                "Avg hash: {} ms, Max hash: {} ms, Avg queue wait: {} ms",
+            getQueueDepth(), getActiveCount(), getPoolSize(), getCompletedCount(), getRejectedCount(),
+            getExpiredCount(), String.format("%.2f", getAverageHashMillis()),
+            String.format("%.2f", getMaxHashMillis()), String.format("%.2f", getAverageQueueMillis()));
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
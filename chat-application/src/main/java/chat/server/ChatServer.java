@@ -3,41 +3,172 @@ package chat.server;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.security.GeneralSecurityException;
 import java.util.*;
 import java.util.concurrent.*;
 
+import chat.metrics.PipelineMetrics;
+import chat.metrics.MessageTrace;
+import chat.server.store.UserStore;
+import chat.server.store.UserStores;
+
 public class ChatServer {
     private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
+    private static final LogSampler broadcastLog = new LogSampler();
     private ServerSocket serverSocket;
     private volatile boolean running = false;
     private final List<ClientHandler> clients = Collections.synchronizedList(new ArrayList<>());
     private final Map<String, ClientHandler> loggedInUsers = new ConcurrentHashMap<>();
     private UserRepository userRepository;
+    private AdmissionControl admissionControl;
+    private AuthExecutor authExecutor;
+    private LoginThrottle loginThrottle;
+    private SessionTokens sessionTokens;
+    private MessageHistory messageHistory;
+    private PipelineMetrics pipelineMetrics;
+    private ChatServerStats stats;
+    private AdminServer adminServer;
+    private final List<ObjectName> registeredMBeans = new ArrayList<>();
+    private int historyMaxPage;
+    private ScheduledExecutorService authDeadlineScheduler;
+    private ThreadPoolExecutor broadcaster;
+    private final Properties config = new Properties();
     private int port;
+    private long authTimeoutMs;
+    private boolean tlsEnabled;
     private Thread serverThread;
     
     public ChatServer() {
         loadConfig();
-        userRepository = new UserRepository();
+        userRepository = new UserRepository(createUserStore());
+    }
+    
+    private UserStore createUserStore() {
+        String type = config.getProperty("database.type", "mapped").trim();
+        String file = config.getProperty("database.file", "users").trim();
+        try {
+            return UserStores.create(type, file,
+                getIntProperty("database.commitBatchSize", 256),
+                getIntProperty("database.commitMaxLatencyMicros", 2000),
+                getIntProperty("database.hotCacheSize", 10000));
+        } catch (IOException | IllegalArgumentException e) {
+            // No silent in-memory fallback: it would lose registrations and let
+            // existing names be registered again. Use database.type=memory for that.
+            throw new IllegalStateException("Cannot open " + type + " user store at " + file
+                + ": " + e.getMessage(), e);
+        }
     }
     
     private void loadConfig() {
-        Properties prop = new Properties();
         try (InputStream input = getClass().getClassLoader().getResourceAsStream("application.properties")) {
             if (input != null) {
-                prop.load(input);
-                port = Integer.parseInt(prop.getProperty("server.port", "8080"));
-                logger.info("Server configuration loaded. Port: {}", port);
+                config.load(input);
+                logger.info("Server configuration loaded");
             } else {
-                port = 8080;
-                logger.warn("Configuration file not found. Using default port: {}", port);
+                logger.warn("Configuration file not found. Using defaults");
             }
         } catch (Exception e) {
-            port = 8080;
             logger.error("Error loading configuration: {}", e.getMessage(), e);
         }
+        
+        // -D options override the file, e.g. -Dserver.maxConnectionsPerIp=5000 for a load test
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("server.") || key.startsWith("auth.") || key.startsWith("database.")
+                    || key.startsWith("chat.")) {
+                config.setProperty(key, System.getProperty(key));
+            }
+        }
+        
+        port = getIntProperty("server.port", 8080);
+        tlsEnabled = Boolean.parseBoolean(config.getProperty("server.tls.enabled", "false").trim());
+        authTimeoutMs = getIntProperty("server.authTimeoutMs", 10000);
+        admissionControl = new AdmissionControl(
+            getIntProperty("server.maxConnections", 1000),
+            getIntProperty("server.maxConnectionsPerIp", 16),
+            getIntProperty("server.maxPendingAuth", 200),
+            getIntProperty("server.shedQueueDepth", 100000));
+        authExecutor = new AuthExecutor(
+            getDoubleProperty("auth.coreFraction", 0.5),
+            getIntProperty("auth.queueCapacity", 1000),
+            getIntProperty("auth.deadlineMs", 5000));
+        SecurityUtil.configure(
+            getIntProperty("auth.hashIterations", 0),
+            getIntProperty("auth.hashTargetMillis", 50),
+            getIntProperty("auth.hashMinIterations", 10000));
+        loginThrottle = new LoginThrottle(
+            getIntProperty("auth.throttle.maxFailuresPerIp", 20),
+            getIntProperty("auth.throttle.ipWindowSeconds", 60),
+            getIntProperty("auth.throttle.maxFailuresPerAccount", 5),
+            getIntProperty("auth.throttle.accountWindowSeconds", 300),
+            getIntProperty("auth.throttle.maxBackoffSeconds", 900),
+            getIntProperty("auth.throttle.maxEntries", 100000));
+        sessionTokens = new SessionTokens(
+            config.getProperty("auth.sessionKeyFile", "session.key").trim(),
+            getIntProperty("auth.sessionTtlSeconds", 3600));
+        messageHistory = new MessageHistory(getIntProperty("chat.historyCapacity", 10000));
+        broadcaster = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, getIntProperty("chat.broadcastQueueCapacity", 1000))),
+            r -> {
+                Thread thread = new Thread(r, "ChatBroadcaster");
+                thread.setDaemon(true);
+                return thread;
+            },
+            ChatServer::awaitBroadcastSlot);
+        historyMaxPage = Math.max(1, getIntProperty("chat.historyMaxPage", 200));
+        pipelineMetrics = new PipelineMetrics(getDoubleProperty("chat.traceSampleRate", 0.01));
+        stats = new ChatServerStats(this, getIntProperty("server.jmx.deepestQueues", 10));
+        logger.info("Port: {}, TLS: {}, auth timeout: {} ms", port, tlsEnabled, authTimeoutMs);
+    }
+    
+    /**
+     * Blocks a sender until the broadcaster has room, which throttles senders
+     * to the rate one thread can fan out. Running the fan-out on the sender's
+     * thread instead would overtake the queued messages and break id order.
+     */
+    private static void awaitBroadcastSlot(Runnable fanOut, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Broadcaster is shut down");
+        }
+        try {
+            executor.getQueue().put(fanOut);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for the broadcaster", e);
+        }
+    }
+    
+    private int getIntProperty(String key, int defaultValue) {
+        String value = config.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '{}' for {}. Using default: {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    private double getDoubleProperty(String key, double defaultValue) {
+        String value = config.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '{}' for {}. Using default: {}", value, key, defaultValue);
+            return defaultValue;
+        }
     }
     
     public void start() {
@@ -47,32 +178,118 @@ public class ChatServer {
         }
         
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = tlsEnabled ? createTlsServerSocket() : new ServerSocket(port);
             serverSocket.setReuseAddress(true);
             running = true;
             logger.info("Chat server started on port {}", port);
             
+            authDeadlineScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "AuthDeadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            
             serverThread = new Thread(this::acceptConnections);
             serverThread.setName("ChatServer-Acceptor");
             serverThread.start();
             
             startConnectionMonitor();
             
-        } catch (IOException e) {
+            if (Boolean.parseBoolean(config.getProperty("server.jmx.enabled", "true").trim())) {
+                registerMBeans();
+            }
+            if (Boolean.parseBoolean(config.getProperty("server.admin.enabled", "false").trim())) {
+                startAdminServer();
+            }
+            
+        } catch (IOException | GeneralSecurityException e) {
             logger.error("Error starting server on port {}: {}", port, e.getMessage(), e);
             running = false;
         }
     }
     
+    private void startAdminServer() {
+        adminServer = new AdminServer(this,
+            config.getProperty("server.admin.host", "127.0.0.1").trim(),
+            getIntProperty("server.admin.port", 9090),
+            getIntProperty("server.admin.threads", 2));
+        try {
+            adminServer.start();
+        } catch (IOException e) {
+            // Chat keeps running without it
+            logger.error("Error starting admin HTTP listener: {}", e.getMessage(), e);
+            adminServer = null;
+        }
+    }
+    
+    private void registerMBeans() {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            registerMBean(mbeanServer, stats, "ChatServer");
+            registerMBean(mbeanServer, new UserRepositoryStats(userRepository), "UserRepository");
+            logger.info("JMX MBeans registered under chat:*,port={}", port);
+        } catch (JMException e) {
+            logger.warn("Error registering JMX MBeans: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void registerMBean(MBeanServer mbeanServer, Object mbean, String type) throws JMException {
+        ObjectName name = new ObjectName("chat:type=" + type + ",port=" + port);
+        if (mbeanServer.isRegistered(name)) {
+            mbeanServer.unregisterMBean(name);
+        }
+        mbeanServer.registerMBean(mbean, name);
+        registeredMBeans.add(name);
+    }
+    
+    private void unregisterMBeans() {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredMBeans) {
+            try {
+                mbeanServer.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.debug("Error unregistering {}: {}", name, e.getMessage());
+            }
+        }
+        registeredMBeans.clear();
+    }
+    
+    private ServerSocket createTlsServerSocket() throws IOException, GeneralSecurityException {
+        SSLContext context = TlsSupport.createServerContext(
+            config.getProperty("server.tls.keyStore", "server.p12").trim(),
+            config.getProperty("server.tls.keyStorePassword", "").toCharArray(),
+            getIntProperty("server.tls.sessionCacheSize", 20000),
+            getIntProperty("server.tls.sessionTimeoutSeconds", 86400));
+        return TlsSupport.createServerSocket(context, port);
+    }
+    
     private void acceptConnections() {
         while (running && !serverSocket.isClosed()) {
             try {
                 Socket clientSocket = serverSocket.accept();
+                stats.accepted.mark();
+                String clientIp = clientSocket.getInetAddress().getHostAddress();
+                String clientAddress = clientIp + ":" + clientSocket.getPort();
+                
+                AdmissionControl.Decision decision = admissionControl.tryAdmit(clientIp);
+                ServerEvents.ConnectionAccepted acceptedEvent = new ServerEvents.ConnectionAccepted();
+                if (acceptedEvent.shouldCommit()) {
+                    acceptedEvent.remoteAddress = clientAddress;
+                    acceptedEvent.decision = decision.name();
+                    acceptedEvent.connections = admissionControl.getConnectionCount();
+                    acceptedEvent.commit();
+                }
+                if (decision != AdmissionControl.Decision.ADMITTED) {
+                    logger.warn("Rejected connection from {}: {}", clientAddress, decision);
+                    stats.rejected.increment();
+                    rejectConnection(clientSocket, decision);
+                    continue;
+                }
+                
                 clientSocket.setSoTimeout(30000);
                 clientSocket.setKeepAlive(true);
                 clientSocket.setTcpNoDelay(true);
                 
-                String clientAddress = clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort();
                 logger.info("New connection from: {}", clientAddress);
                 
                 ClientHandler clientHandler = new ClientHandler(clientSocket, this);
@@ -83,6 +300,8 @@ public class ChatServer {
                 clientThread.setDaemon(true);
                 clientThread.start();
                 
+                scheduleAuthDeadline(clientHandler);
+                
             } catch (SocketException e) {
                 if (running) {
                     logger.info("Server socket closed: {}", e.getMessage());
@@ -95,6 +314,59 @@ public class ChatServer {
         }
     }
     
+    private void rejectConnection(Socket clientSocket, AdmissionControl.Decision decision) {
+        if (clientSocket instanceof SSLSocket) {
+            // Writing the busy frame would run the server handshake on the acceptor
+            // thread, so a TLS client is just reset and retries with its backoff
+            try (Socket socket = clientSocket) {
+                socket.setSoLinger(true, 0);
+            } catch (IOException e) {
+                logger.debug("Error rejecting connection: {}", e.getMessage());
+            }
+            return;
+        }
+        
+        JsonObject busy = new JsonObject();
+        busy.addProperty("type", "serverBusy");
+        busy.addProperty("success", false);
+        busy.addProperty("message", decision == AdmissionControl.Decision.TOO_MANY_FROM_ADDRESS
+            ? "Too many connections from your address"
+            : "Server busy, try again later");
+        
+        try (Socket socket = clientSocket) {
+            socket.setSoTimeout(1000);
+            OutputStream output = socket.getOutputStream();
+            output.write((busy.toString() + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException e) {
+            logger.debug("Error rejecting connection: {}", e.getMessage());
+        }
+    }
+    
+    private void scheduleAuthDeadline(ClientHandler clientHandler) {
+        try {
+            authDeadlineScheduler.schedule(() -> {
+                if (clientHandler.isRunning() && !clientHandler.isAuthenticated()) {
+                    logger.info("Closing connection {} - no login within {} ms",
+                        clientHandler.getSocket().getRemoteSocketAddress(), authTimeoutMs);
+                    clientHandler.close();
+                }
+            }, authTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            clientHandler.close();
+        }
+    }
+    
+    void onClientAuthenticated(ClientHandler client) {
+        if (client.leaveAuthPhase()) {
+            admissionControl.authCompleted();
+        }
+    }
+    
+    AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+    
     private void startConnectionMonitor() {
         Thread monitorThread = new Thread(() -> {
             while (running) {
@@ -104,8 +376,16 @@ public class ChatServer {
                     int totalClients = clients.size();
                     int authenticatedUsers = loggedInUsers.size();
                     
-                    logger.debug("Server status - Total clients: {}, Authenticated users: {}", 
-                                totalClients, authenticatedUsers);
+                    logger.debug("Server status - Total clients: {}, Authenticated users: {}, Broadcast queue: {}", 
+                                totalClients, authenticatedUsers, getBroadcastQueueDepth());
+                    admissionControl.logStatus();
+                    logger.debug("Message pipeline ({}% sampled):{}",
+                        pipelineMetrics.getSampleRate() * 100, pipelineMetrics.summary());
+                    authExecutor.logStatus();
+                    loginThrottle.evictExpired();
+                    logger.debug("Login throttle - Tracked addresses: {}, Tracked accounts: {}, Throttled attempts: {}",
+                        loginThrottle.getTrackedAddresses(), loginThrottle.getTrackedAccounts(),
+                        loginThrottle.getThrottledCount());
                     
                     cleanupInactiveClients();
                     
@@ -127,6 +407,7 @@ public class ChatServer {
                 ClientHandler client = iterator.next();
                 if (!client.isRunning()) {
                     iterator.remove();
+                    releaseAdmission(client);
                     logger.debug("Removed inactive client handler");
                 }
             }
@@ -139,10 +420,16 @@ public class ChatServer {
     }
     
     public synchronized void removeClient(ClientHandler client) {
-        clients.remove(client);
+        if (clients.remove(client)) {
+            releaseAdmission(client);
+        }
         logger.debug("Client removed. Total clients: {}", clients.size());
     }
     
+    private void releaseAdmission(ClientHandler client) {
+        admissionControl.release(client.getSocket().getInetAddress().getHostAddress(), client.leaveAuthPhase());
+    }
+    
     public void broadcastMessageToAll(String messageJson) {
         List<ClientHandler> clientsCopy;
         synchronized (clients) {
@@ -162,7 +449,47 @@ public class ChatServer {
         broadcastToAuthenticated(messageJson, null);
     }
     
+    /**
+     * Records a chat message in the history and hands it to the broadcaster
+     * thread, which fans it out. Only the append and the hand-off happen under
+     * the history's lock. That is enough for clients to receive messages in id
+     * order, which they rely on to merge live messages with pages of history.
+     */
+    public void broadcastChat(JsonObject chatMessage) {
+        broadcastChat(chatMessage, null);
+    }
+    
+    void broadcastChat(JsonObject chatMessage, MessageTrace trace) {
+        // Only the append and the hand-off happen under the history lock, so
+        // history reads and other senders never wait for a fan-out. The single
+        // broadcaster thread takes messages in id order, so every recipient's
+        // queue does too. When the broadcaster is backed up the hand-off
+        // blocks here, holding the lock, so that order is kept.
+        synchronized (messageHistory) {
+            messageHistory.append(chatMessage);
+            OutboundMessage message = new OutboundMessage(chatMessage.toString(), trace);
+            try {
+                broadcaster.execute(() -> {
+                    pipelineMetrics.fanOutStarted(trace);
+                    // One OutboundMessage is queued for every recipient
+                    broadcastToAuthenticated(message, null);
+                    pipelineMetrics.fanOutCompleted(trace);
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Message {} not broadcast: {}", chatMessage.get("id"), e.getMessage());
+            }
+        }
+    }
+    
     public void broadcastToAuthenticated(String messageJson, ClientHandler exclude) {
+        broadcastToAuthenticated(new OutboundMessage(messageJson, null), exclude);
+    }
+    
+    private void broadcastToAuthenticated(OutboundMessage message, ClientHandler exclude) {
+        ServerEvents.BroadcastCompleted event = new ServerEvents.BroadcastCompleted();
+        event.begin();
+        long start = System.nanoTime();
+        String messageJson = message.text;
         List<ClientHandler> clientsCopy;
         synchronized (clients) {
             clientsCopy = new ArrayList<>(clients);
@@ -178,10 +505,8 @@ public class ChatServer {
                 }
                 
                 try {
-                    client.sendMessage(messageJson);
+                    client.sendMessage(message);
                     sentCount++;
-                    logger.debug("Broadcast message sent to user: {}", 
-                        client.getUsername() != null ? client.getUsername() : "unknown");
                 } catch (Exception e) {
                     failedCount++;
                     logger.error("Error broadcasting to client {}: {}", 
@@ -195,13 +520,16 @@ public class ChatServer {
             }
         }
         
-        logger.debug("Broadcast completed: sent to {} clients, failed for {} clients", 
-            sentCount, failedCount);
+        // One line per broadcast, not per recipient, and only a sample of those
+        if (logger.isDebugEnabled() && broadcastLog.sample()) {
+            logger.debug("Broadcast completed: sent to {} clients, failed for {} clients ({} similar skipped)",
+                sentCount, failedCount, broadcastLog.takeSuppressed());
+        }
        
         if (exclude != null && exclude.isAuthenticated() && 
             messageJson.contains("\"type\":\"chat\"")) {
             try {
-                exclude.sendMessage(messageJson);
+                exclude.sendMessage(message);
                 logger.debug("Successfully sent message to excluded client (sender): {}", 
                     exclude.getUsername());
             } catch (Exception e) {
@@ -209,6 +537,14 @@ public class ChatServer {
                     exclude.getUsername(), e.getMessage());
             }
         }
+        stats.fanOut.record(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.fanOut = sentCount;
+            event.failed = failedCount;
+            event.size = messageJson.length();
+            event.commit();
+        }
     }
     
     public boolean isUserAlreadyLoggedIn(String username) {
@@ -236,6 +572,19 @@ public class ChatServer {
         return true;
     }
     
+    /**
+     * Closes the connection currently logged in as {@code username}, if any, so a
+     * resumed session can take its place. Used when a client reconnects before
+     * the server has noticed that its old connection is dead.
+     */
+    public void closeExistingSession(String username, ClientHandler replacement) {
+        ClientHandler existing = loggedInUsers.get(username);
+        if (existing != null && existing != replacement) {
+            logger.info("Closing previous connection of {} for resumed session", username);
+            existing.close();
+        }
+    }
+    
     public synchronized void removeLoggedInUser(String username, ClientHandler client) {
         ClientHandler storedClient = loggedInUsers.get(username);
         if (storedClient != null && storedClient == client) {
@@ -290,6 +639,85 @@ public class ChatServer {
         return result;
     }
     
+    /**
+     * Only the password hash holds an auth worker; the store commit is awaited
+     * without one. Callers continue on the common pool rather than on the user
+     * store's commit thread.
+     */
+    public CompletableFuture<Boolean> registerUserAsync(String username, String password) {
+        return userRepository.registerAsync(username, password, authExecutor)
+            .whenCompleteAsync((result, error) -> {
+                if (error == null) {
+                    logger.info("Registration for user {}: {}", username, result ? "successful" : "failed");
+                }
+            });
+    }
+    
+    /**
+     * Callers continue on the common pool, so replying to the client and the
+     * join broadcast never hold one of the few auth workers.
+     */
+    public CompletableFuture<Boolean> loginUserAsync(String username, String password) {
+        return authExecutor.submit(() -> userRepository.login(username, password))
+            .whenCompleteAsync((result, error) -> {
+                if (error == null) {
+                    logger.info("Login attempt for user {}: {}", username, result ? "successful" : "failed");
+                }
+            });
+    }
+    
+    UserRepository getUserRepository() {
+        return userRepository;
+    }
+    
+    AuthExecutor getAuthExecutor() {
+        return authExecutor;
+    }
+    
+    LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+    
+    SessionTokens getSessionTokens() {
+        return sessionTokens;
+    }
+    
+    MessageHistory getMessageHistory() {
+        return messageHistory;
+    }
+    
+    int getHistoryMaxPage() {
+        return historyMaxPage;
+    }
+    
+    int getBroadcastQueueDepth() {
+        return broadcaster.getQueue().size();
+    }
+    
+    /**
+     * Waits until every chat message handed to the broadcaster so far has been
+     * queued for its recipients.
+     */
+    void awaitBroadcasts() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        broadcaster.execute(done::countDown);
+        done.await();
+    }
+    
+    ChatServerStats getStats() {
+        return stats;
+    }
+    
+    List<ClientHandler> getClientsSnapshot() {
+        synchronized (clients) {
+            return new ArrayList<>(clients);
+        }
+    }
+    
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+    
     public void stop() {
         if (!running) {
             return;
@@ -303,6 +731,13 @@ public class ChatServer {
                 serverSocket.close();
             }
             
+            if (authDeadlineScheduler != null) {
+                authDeadlineScheduler.shutdownNow();
+            }
+            
+            authExecutor.shutdown();
+            broadcaster.shutdown();
+            
             synchronized (clients) {
                 logger.info("Closing {} client connections...", clients.size());
                 for (ClientHandler client : new ArrayList<>(clients)) {
@@ -313,6 +748,14 @@ public class ChatServer {
             
             loggedInUsers.clear();
             
+            userRepository.close();
+            
+            unregisterMBeans();
+            
+            if (adminServer != null) {
+                adminServer.stop();
+            }
+            
             if (serverThread != null && serverThread.isAlive()) {
                 serverThread.join(5000);
             }
@@ -347,7 +790,14 @@ public class ChatServer {
                        throwable.getMessage(), throwable);
         });
         
-        ChatServer server = new ChatServer();
+        ChatServer server;
+        try {
+            server = new ChatServer();
+        } catch (IllegalStateException e) {
+            logger.error("Server failed to start: {}", e.getMessage(), e);
+            System.exit(1);
+            return;
+        }
         
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutdown hook triggered");
@@ -0,0 +1,70 @@
+package chat.server;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live server metrics, registered as {@code chat:type=ChatServer,port=<port>}.
+ * Rates are one-minute moving averages per second.
+ */
+public interface ChatServerMXBean {
+    int getConnections();
+    
+    int getAuthenticatedUsers();
+    
+    long getAcceptedConnections();
+    
+    double getAcceptRate();
+    
+    long getRejectedConnections();
+    
+    long getMessagesIn();
+    
+    double getMessagesInRate();
+    
+    long getMessagesOut();
+    
+    double getMessagesOutRate();
+    
+    long getBroadcasts();
+    
+    double getFanOutMeanMillis();
+    
+    double getFanOutP50Millis();
+    
+    double getFanOutP99Millis();
+    
+    double getFanOutMaxMillis();
+    
+    /**
+     * Chat messages appended to the history and waiting for the broadcaster
+     * thread to fan them out. Senders block once it reaches
+     * {@code chat.broadcastQueueCapacity}.
+     */
+    int getBroadcastQueueDepth();
+    
+    long getQueuedMessages();
+    
+    int getMaxQueueDepth();
+    
+    /**
+     * Number of clients by outbound queue depth: 0, 1-9, 10-99, 100-999 and
+     * 1000+.
+     */
+    Map<String, Integer> getQueueDepthDistribution();
+    
+    /**
+     * The deepest outbound queues as {@code user (address): depth}, deepest
+     * first.
+     */
+    List<String> getDeepestQueues();
+    
+    int getDeepestQueuesCount();
+    
+    void setDeepestQueuesCount(int count);
+    
+    /**
+     * Clears the fan-out latencies and the broadcast count.
+     */
+    void resetLatencies();
+}
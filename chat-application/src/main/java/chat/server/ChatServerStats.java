@@ -0,0 +1,181 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.metrics.LatencyHistogram;
+import chat.metrics.RateMeter;
+
+/**
+ * Counters kept by the server and its client handlers, and the JMX view of
+ * them. Queue depths are read from the client handlers when asked for.
+ */
+class ChatServerStats implements ChatServerMXBean {
+    private static final int[] DEPTH_BUCKETS = {0, 1, 10, 100, 1000};
+    private static final String[] DEPTH_LABELS = {"0", "1-9", "10-99", "100-999", "1000+"};
+    
+    final RateMeter accepted = new RateMeter();
+    final LongAdder rejected = new LongAdder();
+    final RateMeter messagesIn = new RateMeter();
+    final RateMeter messagesOut = new RateMeter();
+    final LatencyHistogram fanOut = new LatencyHistogram();
+    private final ChatServer server;
+    private volatile int deepestQueuesCount;
+    
+    ChatServerStats(ChatServer server, int deepestQueuesCount) {
+        this.server = server;
+        this.deepestQueuesCount = deepestQueuesCount;
+    }
+    
+    @Override
+    public int getConnections() {
+        return server.getClientsSnapshot().size();
+    }
+    
+    @Override
+    public int getAuthenticatedUsers() {
+        return server.getConnectedUserCount();
+    }
+    
+    @Override
+    public long getAcceptedConnections() {
+        return accepted.getCount();
+    }
+    
+    @Override
+    public double getAcceptRate() {
+        return accepted.getRatePerSecond();
+    }
+    
+    @Override
+    public long getRejectedConnections() {
+        return rejected.sum();
+    }
+    
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.getCount();
+    }
+    
+    @Override
+    public double getMessagesInRate() {
+        return messagesIn.getRatePerSecond();
+    }
+    
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.getCount();
+    }
+    
+    @Override
+    public double getMessagesOutRate() {
+        return messagesOut.getRatePerSecond();
+    }
+    
+    @Override
+    public long getBroadcasts() {
+        return fanOut.getCount();
+    }
+    
+    @Override
+    public double getFanOutMeanMillis() {
+        return fanOut.getMeanNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public double getFanOutP50Millis() {
+        return fanOut.getValueAtPercentileMillis(50);
+    }
+    
+    @Override
+    public double getFanOutP99Millis() {
+        return fanOut.getValueAtPercentileMillis(99);
+    }
+    
+    @Override
+    public double getFanOutMaxMillis() {
+        return fanOut.getMaxNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public int getBroadcastQueueDepth() {
+        return server.getBroadcastQueueDepth();
+    }
+    
+    @Override
+    public long getQueuedMessages() {
+        long total = 0;
+        for (ClientHandler client : server.getClientsSnapshot()) {
+            total += client.getQueueDepth();
+        }
+        return total;
+    }
+    
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ClientHandler client : server.getClientsSnapshot()) {
+            max = Math.max(max, client.getQueueDepth());
+        }
+        return max;
+    }
+    
+    @Override
+    public Map<String, Integer> getQueueDepthDistribution() {
+        int[] counts = new int[DEPTH_BUCKETS.length];
+        for (ClientHandler client : server.getClientsSnapshot()) {
+            int depth = client.getQueueDepth();
+            int bucket = DEPTH_BUCKETS.length - 1;
+            while (depth < DEPTH_BUCKETS[bucket]) {
+                bucket--;
+            }
+            counts[bucket]++;
+        }
+        
+        Map<String, Integer> distribution = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            distribution.put(DEPTH_LABELS[i], counts[i]);
+        }
+        return distribution;
+    }
+    
+    @Override
+    public List<String> getDeepestQueues() {
+        List<ClientHandler> clients = server.getClientsSnapshot();
+        int[] depths = new int[clients.size()];
+        List<Integer> order = new ArrayList<>(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            // Read once, the queues keep changing while we sort
+            depths[i] = clients.get(i).getQueueDepth();
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt((Integer i) -> depths[i]).reversed());
+        
+        List<String> deepest = new ArrayList<>();
+        for (int i : order.subList(0, Math.min(deepestQueuesCount, order.size()))) {
+            ClientHandler client = clients.get(i);
+            deepest.add((client.getUsername() != null ? client.getUsername() : "-") +
+                " (" + client.getSocket().getRemoteSocketAddress() + "): " + depths[i]);
+        }
+        return deepest;
+    }
+    
+    @Override
+    public int getDeepestQueuesCount() {
+        return deepestQueuesCount;
+    }
+    
+    @Override
+    public void setDeepestQueuesCount(int count) {
+        deepestQueuesCount = Math.max(0, count);
+    }
+    
+    @Override
+    public void resetLatencies() {
+        fanOut.reset();
+    }
+}
@@ -1,26 +1,35 @@
 package chat.server;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import chat.server.exceptions.UserExistsException;
 import chat.server.exceptions.AuthenticationException;
+import chat.metrics.MessageTrace;
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
+    // Per-message log lines are rate limited across all clients
+    private static final LogSampler receivedLog = new LogSampler();
+    private static final LogSampler sentLog = new LogSampler();
+    private static final LogSampler chatLog = new LogSampler();
     private Socket socket;
     private ChatServer server;
     private BufferedReader in;
     private PrintWriter out;
-    private String username;
-    private boolean authenticated = false;
-    private BlockingQueue<String> messageQueue = new LinkedBlockingQueue<>();
+    private volatile String username;
+    private volatile boolean authenticated = false;
+    private final AtomicBoolean awaitingAuth = new AtomicBoolean(true);
+    private final AtomicBoolean authInProgress = new AtomicBoolean(false);
+    private BlockingQueue<OutboundMessage> messageQueue = new LinkedBlockingQueue<>();
     private Thread messageSenderThread;
     private volatile boolean running = true;
     private final Object sendLock = new Object();
@@ -50,15 +59,17 @@ public class ClientHandler implements Runnable {
         logger.info("Starting client handler for {}", getClientAddress());
         
         try {
-            startMessageSender();
-            
             String message;
             while (running && (message = in.readLine()) != null) {
+                MessageTrace trace = server.getPipelineMetrics().begin();
                 if (!message.trim().isEmpty()) {
-                    logger.debug("Received from {}: {}", 
-                        username != null ? username : getClientAddress(), 
-                        message.length() > 100 ? message.substring(0, 100) + "..." : message);
-                    processMessage(message);
+                    server.getStats().messagesIn.mark();
+                    if (logger.isDebugEnabled() && receivedLog.sample()) {
+                        logger.debug("Received from {}: {} ({} similar skipped)",
+                            username != null ? username : getClientAddress(),
+                            LogSampler.preview(message), receivedLog.takeSuppressed());
+                    }
+                    processMessage(message, trace);
                 }
             }
         } catch (SocketTimeoutException e) {
@@ -75,11 +86,17 @@ public class ClientHandler implements Runnable {
     }
     
     private void startMessageSender() {
+        if (messageSenderThread != null) {
+            return;
+        }
         messageSenderThread = new Thread(() -> {
             try {
                 while (running) {
-                    String message = messageQueue.take();
-                    sendMessageDirectly(message);
+                    OutboundMessage message = messageQueue.take();
+                    long dequeuedNanos = message.trace != null ? System.nanoTime() : 0;
+                    server.getAdmissionControl().messageDequeued();
+                    sendMessageDirectly(message.text);
+                    server.getPipelineMetrics().delivered(message.trace, dequeuedNanos);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -108,10 +125,13 @@ public class ClientHandler implements Runnable {
                         close();
                         return;
                     }
+                    server.getStats().messagesOut.mark();
                     
-                    logger.debug("Successfully sent message to {}: {}", 
-                        username != null ? username : getClientAddress(), 
-                        message.length() > 100 ? message.substring(0, 100) + "..." : message);
+                    if (logger.isDebugEnabled() && sentLog.sample()) {
+                        logger.debug("Successfully sent message to {}: {} ({} similar skipped)",
+                            username != null ? username : getClientAddress(),
+                            LogSampler.preview(message), sentLog.takeSuppressed());
+                    }
                 } catch (Exception e) {
                     logger.error("Failed to send message to {}: {}", getClientAddress(), e.getMessage());
                     if (e instanceof IllegalStateException) {
@@ -124,16 +144,24 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private void processMessage(String jsonMessage) {
+    void processMessage(String jsonMessage) {
+        processMessage(jsonMessage, server.getPipelineMetrics().begin());
+    }
+    
+    private void processMessage(String jsonMessage, MessageTrace trace) {
+        ServerEvents.MessageReceived event = new ServerEvents.MessageReceived();
+        event.begin();
+        String type = null;
         try {
             JsonObject json = JsonParser.parseString(jsonMessage).getAsJsonObject();
+            server.getPipelineMetrics().parsed(trace);
             if (!json.has("type")) {
                 logger.warn("Invalid message format from {}: no type field", getClientAddress());
                 return;
             }
             
-            String type = json.get("type").getAsString();
-            logger.debug("Processing message type '{}' from {}", type, getClientAddress());
+            type = json.get("type").getAsString();
+            logger.trace("Processing message type '{}' from {}", type, username);
             
             switch (type) {
                 case "login":
@@ -142,18 +170,26 @@ public class ClientHandler implements Runnable {
                 case "register":
                     handleRegister(json);
                     break;
+                case "resume":
+                    handleResume(json);
+                    break;
                 case "message":
-                    handleMessage(json);
+                    handleMessage(json, trace);
+                    break;
+                case "history":
+                    handleHistory(json);
                     break;
                 case "logout":
                     logger.info("User {} requested logout", username != null ? username : getClientAddress());
+                    if (authenticated && username != null) {
+                        server.getSessionTokens().revoke(username);
+                    }
                     close();
                     break;
                 case "heartbeat":
                     logger.trace("Received heartbeat from {}", 
                         username != null ? username : getClientAddress());
-                    JsonObject heartbeatResponse = new JsonObject();
-                    heartbeatResponse.addProperty("type", "heartbeat");
+                    JsonObject heartbeatResponse = newResponse(json, "heartbeat");
                     heartbeatResponse.addProperty("status", "ok");
                     sendMessageDirectly(heartbeatResponse.toString());
                     break;
@@ -162,12 +198,20 @@ public class ClientHandler implements Runnable {
             }
         } catch (Exception e) {
             logger.error("Error processing message from {}: {}", getClientAddress(), e.getMessage(), e);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.messageType = type;
+                event.size = jsonMessage.length();
+                event.username = username;
+                event.commit();
+            }
         }
     }
     
     private void handleLogin(JsonObject json) {
         if (!json.has("username") || !json.has("password")) {
-            sendErrorResponse("loginResponse", "Invalid login request format");
+            sendErrorResponse(json, "loginResponse", "Invalid login request format");
             return;
         }
         
@@ -176,50 +220,89 @@ public class ClientHandler implements Runnable {
         
         logger.info("Processing login request for user {} from {}", username, getClientAddress());
         
-        JsonObject response = new JsonObject();
-        response.addProperty("type", "loginResponse");
+        if (authenticated) {
+            sendErrorResponse(json, "loginResponse", "Already logged in as " + this.username);
+            return;
+        }
+        
+        if (server.isUserAlreadyLoggedIn(username)) {
+            logger.warn("User {} already logged in. Rejecting login from {}", 
+                username, getClientAddress());
+            sendErrorResponse(json, "loginResponse", "User " + username + " is already logged in from another location");
+            return;
+        }
+        
+        long retryAfterMs = server.getLoginThrottle().checkAllowed(getClientIp(), username);
+        if (retryAfterMs > 0) {
+            logger.warn("Login for user {} from {} throttled for {} ms", username, getClientAddress(), retryAfterMs);
+            JsonObject response = newResponse(json, "loginResponse");
+            response.addProperty("success", false);
+            response.addProperty("message", "Too many failed login attempts. Try again in " +
+                TimeUnit.MILLISECONDS.toSeconds(retryAfterMs + 999) + " seconds");
+            response.addProperty("retryAfterMs", retryAfterMs);
+            sendMessageDirectly(response.toString());
+            return;
+        }
+        
+        if (!beginAuth(json, "loginResponse")) {
+            return;
+        }
+        
+        // Hashing runs on the auth executor; the reader thread keeps serving this
+        // connection and the response is sent once the check completes.
+        server.loginUserAsync(username, password).whenComplete((success, error) ->
+            completeLogin(json, username, success, error));
+    }
+    
+    /**
+     * Claims this connection's single authentication slot for a login, register
+     * or resume. The slot is released by {@link #endAuth()} only after the
+     * outcome, including {@code authenticated}, is published, so a request
+     * pipelined behind it either waits its turn or sees the session it started.
+     */
+    private boolean beginAuth(JsonObject json, String responseType) {
+        if (!authInProgress.compareAndSet(false, true)) {
+            sendErrorResponse(json, responseType, "Authentication already in progress");
+            return false;
+        }
+        if (authenticated) {
+            authInProgress.set(false);
+            sendErrorResponse(json, responseType, "Already logged in as " + this.username);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Releases the slot taken by {@link #beginAuth}, exactly once per claim and
+     * just before the response is sent, so a client that waits for the response
+     * can send its next request straight away.
+     */
+    private void endAuth() {
+        authInProgress.set(false);
+    }
+    
+    private void completeLogin(JsonObject request, String username, Boolean success, Throwable error) {
+        if (!running) {
+            endAuth();
+            return;
+        }
+        
+        JsonObject response = newResponse(request, "loginResponse");
         
         try {
-            if (server.isUserAlreadyLoggedIn(username)) {
+            if (error != null) {
                 response.addProperty("success", false);
-                response.addProperty("message", "User " + username + " is already logged in from another location");
-                logger.warn("User {} already logged in. Rejecting login from {}", 
-                    username, getClientAddress());
-                sendMessageDirectly(response.toString());
-                return;
-            }
-            
-            if (server.loginUser(username, password)) {
-                this.username = username;
-                this.authenticated = true;
-                
-                if (server.addLoggedInUser(username, this)) {
-                    response.addProperty("success", true);
-                    response.addProperty("message", "Login successful");
+                response.addProperty("message", describeAuthError(error));
+                logger.warn("Login for user {} from {} failed: {}", username, getClientAddress(), error.getMessage());
+            } else if (success) {
+                server.getLoginThrottle().recordSuccess(username);
+                if (startSession(response, username, "Login successful")) {
                     logger.info("User {} successfully logged in from {}", username, getClientAddress());
-                    
-                    sendMessageDirectly(response.toString());
-                    
-                    JsonObject welcome = new JsonObject();
-                    welcome.addProperty("type", "system");
-                    welcome.addProperty("message", username + " joined the chat");
-                    server.broadcastToAuthenticated(welcome.toString(), this);
-                    
-                    server.updateUserCount();
-                    
-                    JsonObject userCount = new JsonObject();
-                    userCount.addProperty("type", "userCount");
-                    userCount.addProperty("count", server.getConnectedUserCount());
-                    sendMessageDirectly(userCount.toString());
-                    
-                    logger.debug("Login process completed for {}", username);
                     return;
-                } else {
-                    response.addProperty("success", false);
-                    response.addProperty("message", "Login failed - could not add user to session");
-                    logger.error("Failed to add user {} to logged in users", username);
                 }
             } else {
+                server.getLoginThrottle().recordFailure(getClientIp(), username);
                 response.addProperty("success", false);
                 response.addProperty("message", "Invalid username or password");
                 logger.warn("Failed login attempt for user {} from {}", username, getClientAddress());
@@ -230,12 +313,98 @@ public class ClientHandler implements Runnable {
             logger.error("Error during login for {}: {}", username, e.getMessage(), e);
         }
         
+        endAuth();
         sendMessageDirectly(response.toString());
     }
     
+    /**
+     * Logs the connection in with a session token from an earlier login, so a
+     * client that lost its connection does not have to send the password again.
+     */
+    private void handleResume(JsonObject json) {
+        if (authenticated) {
+            sendErrorResponse(json, "resumeResponse", "Already logged in as " + this.username);
+            return;
+        }
+        
+        if (!beginAuth(json, "resumeResponse")) {
+            return;
+        }
+        
+        try {
+            String token = json.has("sessionToken") ? json.get("sessionToken").getAsString() : null;
+            String username = server.getSessionTokens().verify(token);
+            if (username == null) {
+                logger.warn("Invalid or expired session token from {}", getClientAddress());
+                sendErrorResponse(json, "resumeResponse", "Session expired, please log in again");
+                return;
+            }
+            
+            server.closeExistingSession(username, this);
+            
+            JsonObject response = newResponse(json, "resumeResponse");
+            try {
+                if (startSession(response, username, "Session resumed")) {
+                    logger.info("User {} resumed session from {}", username, getClientAddress());
+                    return;
+                }
+            } catch (Exception e) {
+                response.addProperty("success", false);
+                response.addProperty("message", "Server error: " + e.getMessage());
+                logger.error("Error resuming session for {}: {}", username, e.getMessage(), e);
+            }
+            sendMessageDirectly(response.toString());
+        } finally {
+            // Runs on the reader thread, which is the only one that claims the
+            // slot, so releasing it again after startSession cannot clobber a claim
+            endAuth();
+        }
+    }
+    
+    /**
+     * Marks this connection as logged in as {@code username} and, if the user
+     * could be registered as online, sends the successful response with a fresh
+     * session token, the join notice and the user count. Returns false with the
+     * response filled in but not sent otherwise.
+     */
+    private boolean startSession(JsonObject response, String username, String message) {
+        this.username = username;
+        startMessageSender();
+        this.authenticated = true;
+        server.onClientAuthenticated(this);
+        
+        if (!server.addLoggedInUser(username, this)) {
+            response.addProperty("success", false);
+            response.addProperty("message", "Login failed - could not add user to session");
+            logger.error("Failed to add user {} to logged in users", username);
+            return false;
+        }
+        
+        response.addProperty("success", true);
+        response.addProperty("message", message);
+        response.addProperty("sessionToken", server.getSessionTokens().issue(username));
+        endAuth();
+        sendMessageDirectly(response.toString());
+        
+        JsonObject welcome = new JsonObject();
+        welcome.addProperty("type", "system");
+        welcome.addProperty("message", username + " joined the chat");
+        server.broadcastToAuthenticated(welcome.toString(), this);
+        
+        server.updateUserCount();
+        
+        JsonObject userCount = new JsonObject();
+        userCount.addProperty("type", "userCount");
+        userCount.addProperty("count", server.getConnectedUserCount());
+        sendMessageDirectly(userCount.toString());
+        
+        logger.debug("Login process completed for {}", username);
+        return true;
+    }
+    
     private void handleRegister(JsonObject json) {
         if (!json.has("username") || !json.has("password")) {
-            sendErrorResponse("registerResponse", "Invalid registration request format");
+            sendErrorResponse(json, "registerResponse", "Invalid registration request format");
             return;
         }
         
@@ -244,29 +413,49 @@ public class ClientHandler implements Runnable {
         
         logger.info("Processing registration request for user {} from {}", username, getClientAddress());
         
-        JsonObject response = new JsonObject();
-        response.addProperty("type", "registerResponse");
+        if (!beginAuth(json, "registerResponse")) {
+            return;
+        }
         
-        try {
-            if (server.registerUser(username, password)) {
-                response.addProperty("success", true);
-                response.addProperty("message", "Registration successful");
-                logger.info("New user registered: {} from {}", username, getClientAddress());
-            } else {
-                response.addProperty("success", false);
-                response.addProperty("message", "Username already exists");
-                logger.warn("Failed registration attempt for user {} from {}", username, getClientAddress());
-            }
-        } catch (Exception e) {
+        server.registerUserAsync(username, password).whenComplete((success, error) ->
+            completeRegister(json, username, success, error));
+    }
+    
+    private void completeRegister(JsonObject request, String username, Boolean success, Throwable error) {
+        if (!running) {
+            endAuth();
+            return;
+        }
+        
+        JsonObject response = newResponse(request, "registerResponse");
+        
+        if (error != null) {
             response.addProperty("success", false);
-            response.addProperty("message", "Server error: " + e.getMessage());
-            logger.error("Error during registration for {}: {}", username, e.getMessage(), e);
+            response.addProperty("message", describeAuthError(error));
+            logger.warn("Registration for user {} from {} failed: {}", username, getClientAddress(), error.getMessage());
+        } else if (success) {
+            response.addProperty("success", true);
+            response.addProperty("message", "Registration successful");
+            logger.info("New user registered: {} from {}", username, getClientAddress());
+        } else {
+            response.addProperty("success", false);
+            response.addProperty("message", "Username already exists");
+            logger.warn("Failed registration attempt for user {} from {}", username, getClientAddress());
         }
         
+        endAuth();
         sendMessageDirectly(response.toString());
     }
     
-    private void handleMessage(JsonObject json) {
+    private String describeAuthError(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof AuthenticationException) {
+            return cause.getMessage();
+        }
+        return "Server error: " + cause.getMessage();
+    }
+    
+    private void handleMessage(JsonObject json, MessageTrace trace) {
         if (!authenticated || username == null) {
             logger.warn("Unauthorized message attempt from {}", getClientAddress());
             sendErrorResponse("error", "You must be logged in to send messages");
@@ -294,29 +483,94 @@ public class ClientHandler implements Runnable {
         chatMessage.addProperty("message", message);
         chatMessage.addProperty("timestamp", System.currentTimeMillis());
         
-        String messageJson = chatMessage.toString();
+        server.broadcastChat(chatMessage, trace);
+        
+        if (logger.isInfoEnabled() && chatLog.sample()) {
+            logger.info("Message from '{}' broadcasted to {} authenticated users (including sender), " +
+                "{} similar skipped", username, server.getConnectedUserCount(), chatLog.takeSuppressed());
+        }
+    }
+    
+    /**
+     * Returns a page of chat history: messages older than {@code beforeId}, or
+     * newer than {@code afterId} if that is given instead.
+     */
+    private void handleHistory(JsonObject json) {
+        if (!authenticated || username == null) {
+            sendErrorResponse(json, "historyResponse", "You must be logged in to read history");
+            return;
+        }
+        
+        MessageHistory history = server.getMessageHistory();
+        int limit = server.getHistoryMaxPage();
+        if (json.has("limit")) {
+            limit = Math.max(1, Math.min(limit, json.get("limit").getAsInt()));
+        }
+        
+        List<JsonObject> page;
+        boolean hasMore;
+        if (json.has("afterId")) {
+            long afterId = json.get("afterId").getAsLong();
+            page = history.after(afterId, limit);
+            hasMore = !page.isEmpty()
+                && page.get(page.size() - 1).get("id").getAsLong() < history.getNewestId();
+        } else {
+            long beforeId = json.has("beforeId") ? json.get("beforeId").getAsLong() : 0;
+            page = history.before(beforeId, limit);
+            hasMore = !page.isEmpty() && page.get(0).get("id").getAsLong() > history.getOldestId();
+        }
+        
+        JsonArray messages = new JsonArray(page.size());
+        page.forEach(messages::add);
         
-        server.broadcastToAuthenticated(messageJson);
+        JsonObject response = newResponse(json, "historyResponse");
+        response.addProperty("success", true);
+        response.add("messages", messages);
+        response.addProperty("hasMore", hasMore);
+        sendMessageDirectly(response.toString());
         
-        logger.info("Message from '{}' broadcasted to {} authenticated users (including sender)", 
-            username, server.getConnectedUserCount());
+        logger.debug("Sent {} history messages to {}", page.size(), username);
     }
     
     private void sendErrorResponse(String type, String message) {
-        JsonObject error = new JsonObject();
-        error.addProperty("type", type);
+        sendErrorResponse(null, type, message);
+    }
+    
+    private void sendErrorResponse(JsonObject request, String type, String message) {
+        JsonObject error = newResponse(request, type);
         error.addProperty("success", false);
         error.addProperty("message", message);
         sendMessageDirectly(error.toString());
     }
     
+    /**
+     * Starts a response frame, echoing the request's requestId (if it has one)
+     * so the client can match the response to its pending request.
+     */
+    private JsonObject newResponse(JsonObject request, String type) {
+        JsonObject response = new JsonObject();
+        response.addProperty("type", type);
+        if (request != null && request.has("requestId")) {
+            response.add("requestId", request.get("requestId"));
+        }
+        return response;
+    }
+    
     public void sendMessage(String message) {
-        if (running && authenticated && !sendingMessage.get()) {
+        sendMessage(new OutboundMessage(message, null));
+    }
+    
+    void sendMessage(OutboundMessage message) {
+        // Queued even while the sender thread is writing; skipping here silently
+        // dropped broadcasts that arrived during another write
+        if (running && authenticated) {
             try {
                 boolean added = messageQueue.offer(message, 100, TimeUnit.MILLISECONDS);
-                if (!added) {
+                if (added) {
+                    server.getAdmissionControl().messageQueued();
+                } else {
                     logger.warn("Message queue full for user {}", username);
-                    sendMessageDirectly(message);
+                    sendMessageDirectly(message.text);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -340,6 +594,10 @@ public class ClientHandler implements Runnable {
         return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
     }
     
+    private String getClientIp() {
+        return socket.getInetAddress().getHostAddress();
+    }
+    
     public void close() {
         if (!running) {
             return;
@@ -351,7 +609,9 @@ public class ClientHandler implements Runnable {
             messageSenderThread.interrupt();
         }
         
-        messageQueue.clear();
+        while (messageQueue.poll() != null) {
+            server.getAdmissionControl().messageDequeued();
+        }
         
         try {
             if (in != null) in.close();
@@ -381,6 +641,14 @@ public class ClientHandler implements Runnable {
         logger.info("Client handler closed for {}", getClientAddress());
     }
     
+    boolean leaveAuthPhase() {
+        return awaitingAuth.compareAndSet(true, false);
+    }
+    
+    int getQueueDepth() {
+        return messageQueue.size();
+    }
+    
     public boolean isRunning() {
         return running;
     }
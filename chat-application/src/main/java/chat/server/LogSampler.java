@@ -0,0 +1,68 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limit for one kind of per-message log line: at most
+ * {@code chat.log.samplesPerSecond} lines a second get through (10 by
+ * default), and the rest are counted so the next line that is logged can say
+ * how many were skipped. Once the second's budget is used up, a check is one
+ * read and one LongAdder increment.
+ */
+class LogSampler {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int PREVIEW_LENGTH = 100;
+    static final int DEFAULT_PERMITS = Integer.getInteger("chat.log.samplesPerSecond", 10);
+    
+    private final int permitsPerSecond;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger used = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+    
+    LogSampler() {
+        this(DEFAULT_PERMITS);
+    }
+    
+    LogSampler(int permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+    
+    /**
+     * Returns whether this occurrence should be logged.
+     */
+    boolean sample() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            used.set(0);
+        }
+        if (used.get() < permitsPerSecond && used.incrementAndGet() <= permitsPerSecond) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+    
+    /**
+     * Returns how many occurrences were skipped since the last call.
+     */
+    long takeSuppressed() {
+        return suppressed.sumThenReset();
+    }
+    
+    /**
+     * Wraps a frame for logging. The first 100 characters are only copied
+     * out if the line is actually written.
+     */
+    static Object preview(String message) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return message.length() > PREVIEW_LENGTH ? message.substring(0, PREVIEW_LENGTH) + "..." : message;
+            }
+        };
+    }
+}
@@ -0,0 +1,208 @@
+package chat.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Failed-login throttling by source address and by account. Failures are
+ * counted in sliding windows; past the limit every further failure doubles the
+ * time the address or account is blocked. Checked before any password hashing.
+ */
+public class LoginThrottle {
+    private static final Logger logger = LoggerFactory.getLogger(LoginThrottle.class);
+    private static final int STRIPES = 32;
+    private static final long BASE_BACKOFF_MS = 1000;
+    
+    private final FailureTable byAddress;
+    private final FailureTable byAccount;
+    private final LongAdder throttled = new LongAdder();
+    
+    public LoginThrottle(int maxFailuresPerIp, long ipWindowSeconds, int maxFailuresPerAccount,
+                         long accountWindowSeconds, long maxBackoffSeconds, int maxEntries) {
+        long maxBackoffMs = TimeUnit.SECONDS.toMillis(maxBackoffSeconds);
+        this.byAddress = new FailureTable(maxFailuresPerIp, TimeUnit.SECONDS.toMillis(ipWindowSeconds),
+            maxBackoffMs, maxEntries);
+        this.byAccount = new FailureTable(maxFailuresPerAccount, TimeUnit.SECONDS.toMillis(accountWindowSeconds),
+            maxBackoffMs, maxEntries);
+        logger.info("Login throttle: {} failures per IP in {} s, {} per account in {} s, max backoff {} s",
+            maxFailuresPerIp, ipWindowSeconds, maxFailuresPerAccount, accountWindowSeconds, maxBackoffSeconds);
+    }
+    
+    /**
+     * Returns 0 if a login attempt may proceed, otherwise how many milliseconds
+     * the caller has to wait.
+     */
+    public long checkAllowed(String ip, String username) {
+        long now = now();
+        long wait = Math.max(byAddress.blockedFor(ip, now), byAccount.blockedFor(username, now));
+        if (wait > 0) {
+            throttled.increment();
+        }
+        return wait;
+    }
+    
+    public void recordFailure(String ip, String username) {
+        long now = now();
+        long ipBlock = byAddress.recordFailure(ip, now);
+        long accountBlock = byAccount.recordFailure(username, now);
+        if (ipBlock > 0 || accountBlock > 0) {
+            logger.warn("Throttling logins from {} for {} ms and for account {} for {} ms",
+                ip, ipBlock, username, accountBlock);
+        }
+    }
+    
+    public void recordSuccess(String username) {
+        byAccount.clear(username);
+    }
+    
+    public void evictExpired() {
+        long now = now();
+        byAddress.evictExpired(now);
+        byAccount.evictExpired(now);
+    }
+    
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+    
+    public int getTrackedAddresses() {
+        return byAddress.size();
+    }
+    
+    public int getTrackedAccounts() {
+        return byAccount.size();
+    }
+    
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+    
+    /**
+     * Sliding-window approximation with two fixed buckets: the previous bucket
+     * is weighted by how much of it still overlaps the window.
+     */
+    private static final class Window {
+        long bucketStart;
+        int current;
+        int previous;
+        long blockedUntil;
+        
+        double count(long now, long windowMs) {
+            roll(now, windowMs);
+            double overlap = 1.0 - (double) (now - bucketStart) / windowMs;
+            return previous * overlap + current;
+        }
+        
+        void roll(long now, long windowMs) {
+            long elapsed = now - bucketStart;
+            if (elapsed >= 2 * windowMs) {
+                previous = 0;
+                current = 0;
+                bucketStart = now;
+            } else if (elapsed >= windowMs) {
+                previous = current;
+                current = 0;
+                bucketStart += windowMs;
+            }
+        }
+        
+        boolean isExpired(long now, long windowMs) {
+            return now - bucketStart >= 2 * windowMs && now >= blockedUntil;
+        }
+    }
+    
+    private static final class FailureTable {
+        private final int maxFailures;
+        private final long windowMs;
+        private final long maxBackoffMs;
+        private final List<Map<String, Window>> stripes;
+        
+        FailureTable(int maxFailures, long windowMs, long maxBackoffMs, int maxEntries) {
+            this.maxFailures = Math.max(1, maxFailures);
+            this.windowMs = Math.max(1, windowMs);
+            this.maxBackoffMs = maxBackoffMs;
+            int perStripe = Math.max(16, maxEntries / STRIPES);
+            this.stripes = new ArrayList<>(STRIPES);
+            for (int i = 0; i < STRIPES; i++) {
+                // Access-ordered, so a full stripe drops its least recently seen key
+                stripes.add(new LinkedHashMap<String, Window>(64, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                        return size() > perStripe;
+                    }
+                });
+            }
+        }
+        
+        private Map<String, Window> stripeFor(String key) {
+            return stripes.get((key.hashCode() & 0x7fffffff) % STRIPES);
+        }
+        
+        long blockedFor(String key, long now) {
+            Map<String, Window> stripe = stripeFor(key);
+            synchronized (stripe) {
+                Window window = stripe.get(key);
+                return window == null ? 0 : Math.max(0, window.blockedUntil - now);
+            }
+        }
+        
+        long recordFailure(String key, long now) {
+            Map<String, Window> stripe = stripeFor(key);
+            synchronized (stripe) {
+                Window window = stripe.get(key);
+                if (window == null) {
+                    window = new Window();
+                    window.bucketStart = now;
+                    stripe.put(key, window);
+                }
+                window.roll(now, windowMs);
+                window.current++;
+                
+                int excess = (int) Math.ceil(window.count(now, windowMs)) - maxFailures;
+                if (excess < 0) {
+                    return 0;
+                }
+                long backoff = Math.min(maxBackoffMs, BASE_BACKOFF_MS << Math.min(excess, 30));
+                window.blockedUntil = now + backoff;
+                return backoff;
+            }
+        }
+        
+        void clear(String key) {
+            Map<String, Window> stripe = stripeFor(key);
+            synchronized (stripe) {
+                stripe.remove(key);
+            }
+        }
+        
+        void evictExpired(long now) {
+            for (Map<String, Window> stripe : stripes) {
+                synchronized (stripe) {
+                    Iterator<Window> iterator = stripe.values().iterator();
+                    while (iterator.hasNext()) {
+                        if (iterator.next().isExpired(now, windowMs)) {
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+        }
+        
+        int size() {
+            int size = 0;
+            for (Map<String, Window> stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.size();
+                }
+            }
+            return size;
+        }
+    }
+}
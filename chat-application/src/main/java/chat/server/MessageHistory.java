@@ -0,0 +1,74 @@
+package chat.server;
+
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent chat messages, kept in a fixed-size ring so clients can page
+ * back through scrollback. Every message gets an increasing id starting at 1;
+ * once the ring is full the oldest message is overwritten.
+ */
+public class MessageHistory {
+    private final JsonObject[] messages;
+    private long nextId = 1;
+    
+    public MessageHistory(int capacity) {
+        this.messages = new JsonObject[Math.max(1, capacity)];
+    }
+    
+    /**
+     * Assigns the next id to a chat message, stores it and returns the id. The
+     * message must not be modified afterwards.
+     */
+    public synchronized long append(JsonObject message) {
+        long id = nextId++;
+        message.addProperty("id", id);
+        messages[(int) (id % messages.length)] = message;
+        return id;
+    }
+    
+    /**
+     * Returns up to {@code limit} messages with ids below {@code beforeId}, oldest
+     * first. A {@code beforeId} of 0 or less means the newest messages.
+     */
+    public synchronized List<JsonObject> before(long beforeId, int limit) {
+        long end = beforeId <= 0 ? nextId : Math.min(beforeId, nextId);
+        long start = Math.max(oldestId(), end - Math.max(0, limit));
+        return copy(start, end);
+    }
+    
+    /**
+     * Returns up to {@code limit} messages with ids above {@code afterId}, oldest
+     * first.
+     */
+    public synchronized List<JsonObject> after(long afterId, int limit) {
+        long start = Math.max(oldestId(), afterId + 1);
+        long end = Math.min(nextId, start + Math.max(0, limit));
+        return copy(start, end);
+    }
+    
+    public synchronized long getOldestId() {
+        return oldestId();
+    }
+    
+    public synchronized long getNewestId() {
+        return nextId - 1;
+    }
+    
+    public int getCapacity() {
+        return messages.length;
+    }
+    
+    private long oldestId() {
+        return Math.max(1, nextId - messages.length);
+    }
+    
+    private List<JsonObject> copy(long start, long end) {
+        List<JsonObject> result = new ArrayList<>((int) Math.max(0, end - start));
+        for (long id = start; id < end; id++) {
+            result.add(messages[(int) (id % messages.length)]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,17 @@
+package chat.server;
+
+import chat.metrics.MessageTrace;
+
+/**
+ * A frame in a client's send queue. A broadcast queues the same instance for
+ * every recipient, so the trace of a sampled message reaches each sender.
+ */
+final class OutboundMessage {
+    final String text;
+    final MessageTrace trace;
+    
+    OutboundMessage(String text, MessageTrace trace) {
+        this.text = text;
+        this.trace = trace;
+    }
+}
@@ -3,72 +3,276 @@ package chat.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
 
+import chat.server.model.Credential;
+import chat.server.model.User;
+
+/**
+ * Password hashing. New hashes are stored as
+ * {@code $pbkdf2-sha256$<iterations>$<salt>$<hash>} with Base64 salt and hash;
+ * values without the {@code $} prefix are the original format (Base64 of a
+ * 32-byte salt and 10000 rounds of SHA-256) and are still accepted.
+ */
 public class SecurityUtil {
     private static final Logger logger = LoggerFactory.getLogger(SecurityUtil.class);
     private static final SecureRandom random = new SecureRandom();
     private static final int SALT_LENGTH = 32;
-    private static final int HASH_ITERATIONS = 10000;
+    private static final int HASH_LENGTH = 32;
+    private static final int HMAC_BLOCK_LENGTH = 64;
+    private static final int LEGACY_HASH_ITERATIONS = 10000;
+    private static final String PBKDF2_PREFIX = "$pbkdf2-sha256$";
+    private static final byte[] FIRST_BLOCK_INDEX = {0, 0, 0, 1};
+    private static final int CALIBRATION_ITERATIONS = 20000;
+    private static final int CALIBRATION_RUNS = 5;
+    // A calibrated cost can vary by half between runs, so stored hashes are only
+    // upgraded once they fall this far below it
+    private static final double REHASH_MARGIN = 0.5;
+    
+    private static volatile int iterations = 100000;
+    private static volatile int rehashBelow = iterations;
+    
+    // Per-thread digests and scratch buffers, so verification allocates nothing
+    // per round. Hashing runs on the fixed auth worker pool. HMAC is built from
+    // two digests because javax.crypto.Mac allocates on every doFinal.
+    private static final ThreadLocal<HashState> hashState = ThreadLocal.withInitial(HashState::new);
+    
+    private static final class HashState {
+        final MessageDigest inner;
+        final MessageDigest outer;
+        final byte[] innerPad = new byte[HMAC_BLOCK_LENGTH];
+        final byte[] outerPad = new byte[HMAC_BLOCK_LENGTH];
+        final byte[] block = new byte[HASH_LENGTH];
+        final byte[] result = new byte[HASH_LENGTH];
+        
+        HashState() {
+            try {
+                inner = MessageDigest.getInstance("SHA-256");
+                outer = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+    
+    /**
+     * Sets the PBKDF2 cost for new hashes. With {@code fixedIterations} above zero
+     * that value is used as is; otherwise the cost is measured on this machine so
+     * that one hash takes about {@code targetMillis}, but never less than
+     * {@code minIterations}.
+     */
+    public static void configure(int fixedIterations, long targetMillis, int minIterations) {
+        if (fixedIterations > 0) {
+            iterations = fixedIterations;
+            rehashBelow = fixedIterations;
+            logger.info("Password hashing: PBKDF2-SHA256 with {} iterations", iterations);
+            return;
+        }
+        
+        try {
+            iterations = calibrate(targetMillis, minIterations);
+            logger.info("Password hashing: PBKDF2-SHA256 calibrated to {} iterations for a {} ms target",
+                iterations, targetMillis);
+        } catch (GeneralSecurityException e) {
+            logger.error("Error calibrating password hashing: {}. Using {} iterations",
+                e.getMessage(), iterations, e);
+        }
+        rehashBelow = Math.min(iterations, Math.max(minIterations, (int) (iterations * REHASH_MARGIN)));
+        logger.info("Stored hashes below {} iterations are upgraded on login", rehashBelow);
+    }
+    
+    private static int calibrate(long targetMillis, int minIterations) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        HashState state = hashState.get();
+        
+        // The first runs include JIT warm-up, so take the fastest one.
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            pbkdf2(state, "calibration", salt, CALIBRATION_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        
+        double perIteration = (double) best / CALIBRATION_ITERATIONS;
+        long calibrated = Math.round(targetMillis * 1_000_000.0 / perIteration / 1000) * 1000;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(minIterations, calibrated));
+    }
+    
+    public static int getIterations() {
+        return iterations;
+    }
     
     public static String hashPassword(String password) {
         try {
             byte[] salt = new byte[SALT_LENGTH];
             random.nextBytes(salt);
             
-            byte[] hashedPassword = hashWithIterations(password, salt, HASH_ITERATIONS);
+            int cost = iterations;
+            HashState state = hashState.get();
+            pbkdf2(state, password, salt, cost);
             
-            byte[] combined = new byte[salt.length + hashedPassword.length];
-            System.arraycopy(salt, 0, combined, 0, salt.length);
-            System.arraycopy(hashedPassword, 0, combined, salt.length, hashedPassword.length);
-            
-            return Base64.getEncoder().encodeToString(combined);
+            Base64.Encoder encoder = Base64.getEncoder();
+            return PBKDF2_PREFIX + cost + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(state.result);
         } catch (Exception e) {
             logger.error("Error hashing password: {}", e.getMessage(), e);
             return null;
         }
     }
     
-    private static byte[] hashWithIterations(String password, byte[] salt, int iterations) 
+    /**
+     * PBKDF2-HMAC-SHA256 for a single 32-byte output block, written to
+     * {@code state.result}. Same output as the JDK's PBKDF2WithHmacSHA256 with a
+     * 256-bit key length.
+     */
+    private static void pbkdf2(HashState state, String password, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        byte[] key = password.getBytes(StandardCharsets.UTF_8);
+        if (key.length > HMAC_BLOCK_LENGTH) {
+            key = state.inner.digest(key);
+        }
+        Arrays.fill(state.innerPad, (byte) 0x36);
+        Arrays.fill(state.outerPad, (byte) 0x5c);
+        for (int i = 0; i < key.length; i++) {
+            state.innerPad[i] ^= key[i];
+            state.outerPad[i] ^= key[i];
+        }
+        
+        byte[] u = state.block;
+        byte[] t = state.result;
+        state.inner.reset();
+        state.inner.update(state.innerPad);
+        state.inner.update(salt);
+        state.inner.update(FIRST_BLOCK_INDEX);
+        finishHmac(state, u);
+        System.arraycopy(u, 0, t, 0, HASH_LENGTH);
+        
+        for (int i = 1; i < iterations; i++) {
+            state.inner.update(state.innerPad);
+            state.inner.update(u, 0, HASH_LENGTH);
+            finishHmac(state, u);
+            for (int j = 0; j < HASH_LENGTH; j++) {
+                t[j] ^= u[j];
+            }
+        }
+    }
+    
+    private static void finishHmac(HashState state, byte[] out) throws GeneralSecurityException {
+        state.inner.digest(out, 0, HASH_LENGTH);
+        state.outer.update(state.outerPad);
+        state.outer.update(out, 0, HASH_LENGTH);
+        state.outer.digest(out, 0, HASH_LENGTH);
+    }
+    
+    private static void hashWithIterations(HashState state, String password, byte[] salt, int iterations)
             throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        MessageDigest md = state.inner;
+        byte[] hash = state.result;
+        md.reset();
         md.update(salt);
         md.update(password.getBytes(StandardCharsets.UTF_8));
-        byte[] hash = md.digest();
+        md.digest(hash, 0, HASH_LENGTH);
         
         for (int i = 1; i < iterations; i++) {
-            md.reset();
-            hash = md.digest(hash);
+            md.update(hash, 0, HASH_LENGTH);
+            md.digest(hash, 0, HASH_LENGTH);
         }
-        
-        return hash;
     }
     
     public static boolean checkPassword(String password, String storedHash) {
+        Credential credential = decode(storedHash);
+        return credential != null && checkPassword(password, credential);
+    }
+    
+    /**
+     * Checks a password against the user's stored hash, decoding it once and
+     * keeping the decoded form on the user for later logins.
+     */
+    public static boolean checkPassword(String password, User user) {
+        Credential credential = getCredential(user);
+        return credential != null && checkPassword(password, credential);
+    }
+    
+    private static boolean checkPassword(String password, Credential credential) {
+        try {
+            HashState state = hashState.get();
+            if (credential.isLegacy()) {
+                hashWithIterations(state, password, credential.getSalt(), LEGACY_HASH_ITERATIONS);
+            } else {
+                pbkdf2(state, password, credential.getSalt(), credential.getIterations());
+            }
+            return MessageDigest.isEqual(state.result, credential.getHash());
+        } catch (Exception e) {
+            logger.error("Error checking password: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    private static Credential getCredential(User user) {
+        Credential credential = user.getCredential();
+        if (credential == null) {
+            credential = decode(user.getPasswordHash());
+            user.setCredential(credential);
+        }
+        return credential;
+    }
+    
+    /**
+     * Decodes a stored hash in either format, or returns null if it is malformed.
+     */
+    public static Credential decode(String storedHash) {
+        if (storedHash == null) {
+            return null;
+        }
+        
         try {
-            byte[] combined = Base64.getDecoder().decode(storedHash);
+            Base64.Decoder decoder = Base64.getDecoder();
+            if (storedHash.startsWith(PBKDF2_PREFIX)) {
+                String[] parts = storedHash.substring(PBKDF2_PREFIX.length()).split("\\$");
+                if (parts.length != 3) {
+                    logger.error("Malformed PBKDF2 hash");
+                    return null;
+                }
+                
+                byte[] hash = decoder.decode(parts[2]);
+                if (hash.length != HASH_LENGTH) {
+                    logger.error("Stored hash has wrong length");
+                    return null;
+                }
+                return new Credential(Integer.parseInt(parts[0]), decoder.decode(parts[1]), hash);
+            }
             
-            if (combined.length < SALT_LENGTH) {
+            byte[] combined = decoder.decode(storedHash);
+            if (combined.length < SALT_LENGTH + HASH_LENGTH) {
                 logger.error("Stored hash is too short");
-                return false;
+                return null;
             }
             
             byte[] salt = new byte[SALT_LENGTH];
-            System.arraycopy(combined, 0, salt, 0, salt.length);
-            
-            byte[] hashedPassword = hashWithIterations(password, salt, HASH_ITERATIONS);
-            
-            for (int i = 0; i < hashedPassword.length; i++) {
-                if (hashedPassword[i] != combined[salt.length + i]) {
-                    return false;
-                }
-            }
-            return true;
-        } catch (Exception e) {
-            logger.error("Error checking password: {}", e.getMessage(), e);
-            return false;
+            byte[] hash = new byte[HASH_LENGTH];
+            System.arraycopy(combined, 0, salt, 0, SALT_LENGTH);
+            System.arraycopy(combined, SALT_LENGTH, hash, 0, HASH_LENGTH);
+            return new Credential(0, salt, hash);
+        } catch (IllegalArgumentException e) {
+            logger.error("Error decoding stored hash: {}", e.getMessage());
+            return null;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Returns true if the user's hash uses the legacy format or a cost clearly
+     * below the one new hashes get, so it should be replaced after a successful
+     * login. A calibrated cost must be undercut by {@link #REHASH_MARGIN}, so
+     * calibration noise between restarts does not rewrite credentials, and a
+     * replacement is never cheaper than the hash it replaces.
+     */
+    public static boolean needsRehash(User user) {
+        Credential credential = getCredential(user);
+        return credential == null || credential.isLegacy() || credential.getIterations() < rehashBelow;
+    }
+}
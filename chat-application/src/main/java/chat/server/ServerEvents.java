@@ -0,0 +1,119 @@
+package chat.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events emitted by the server, under the "Chat" category
+ * as {@code chat.*}. None of them take a stack trace. The per-message events
+ * only record occurrences over 1 ms by default, so they can stay on in a
+ * continuous recording; lower the threshold in a custom .jfc to see all of
+ * them. While JFR is not recording, each event costs one enabled check.
+ */
+final class ServerEvents {
+    private ServerEvents() {
+    }
+    
+    @Name("chat.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Description("A socket accepted by the server and the admission decision for it")
+    @Category({"Chat", "Connections"})
+    @StackTrace(false)
+    static final class ConnectionAccepted extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+        
+        @Label("Decision")
+        String decision;
+        
+        @Label("Connections")
+        @Description("Open connections after the decision")
+        int connections;
+    }
+    
+    @Name("chat.MessageReceived")
+    @Label("Message Received")
+    @Description("Parsing and handling of one frame from a client")
+    @Category({"Chat", "Messages"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class MessageReceived extends Event {
+        @Label("Message Type")
+        String messageType;
+        
+        @Label("Size")
+        @DataAmount
+        int size;
+        
+        @Label("User")
+        String username;
+    }
+    
+    @Name("chat.BroadcastCompleted")
+    @Label("Broadcast Completed")
+    @Description("Queueing one frame for every logged-in client")
+    @Category({"Chat", "Messages"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class BroadcastCompleted extends Event {
+        @Label("Fan-out")
+        @Description("Clients the frame was queued for")
+        int fanOut;
+        
+        @Label("Failed")
+        int failed;
+        
+        @Label("Size")
+        @DataAmount
+        int size;
+    }
+    
+    @Name("chat.AuthAttempt")
+    @Label("Auth Attempt")
+    @Description("A login or registration checked against the user repository")
+    @Category({"Chat", "Authentication"})
+    @StackTrace(false)
+    static final class AuthAttempt extends Event {
+        @Label("Operation")
+        String operation;
+        
+        @Label("User")
+        String username;
+        
+        @Label("Outcome")
+        String outcome;
+        
+        @Label("Success")
+        boolean success;
+        
+        @Label("Hash Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long hashDuration;
+    }
+    
+    @Name("chat.UserStoreWrite")
+    @Label("User Store Write")
+    @Description("An insert or update in the user store, until it is durable")
+    @Category({"Chat", "Persistence"})
+    @StackTrace(false)
+    static final class UserStoreWrite extends Event {
+        @Label("Operation")
+        String operation;
+        
+        @Label("Store")
+        String store;
+        
+        @Label("User")
+        String username;
+        
+        @Label("Success")
+        boolean success;
+    }
+}
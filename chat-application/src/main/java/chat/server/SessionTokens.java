@@ -0,0 +1,245 @@
+package chat.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signed tokens that let a client resume its session after a reconnect without
+ * sending the password again. A token is {@code <user>.<epoch>.<expiry>.<mac>}
+ * with an HMAC-SHA256 over everything before the mac, so checking one costs a
+ * single HMAC instead of a password hash. The key is kept in an owner-only file
+ * so tokens stay valid across server restarts.
+ * <p>
+ * Each user has a revocation epoch, bumped by {@link #revoke(String)}. Tokens
+ * carry the epoch they were issued under and are rejected once it is older than
+ * the user's current one. Revocations are appended to {@code <keyFile>.revoked}
+ * so they also survive a restart.
+ */
+public class SessionTokens {
+    private static final Logger logger = LoggerFactory.getLogger(SessionTokens.class);
+    private static final int KEY_LENGTH = 32;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> SHARED = EnumSet.of(
+        PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE,
+        PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE);
+    
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final ThreadLocal<Mac> mac;
+    private final Path revocationFile;
+    private final Map<String, Long> epochs = new ConcurrentHashMap<>();
+    
+    public SessionTokens(String keyFile, long ttlSeconds) {
+        this.key = new SecretKeySpec(loadOrCreateKey(keyFile), ALGORITHM);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        });
+        this.revocationFile = Paths.get(keyFile + ".revoked");
+        loadRevocations();
+        logger.info("Session tokens valid for {} s, {} users with revoked tokens", ttlSeconds, epochs.size());
+    }
+    
+    private static byte[] loadOrCreateKey(String keyFile) {
+        Path path = Paths.get(keyFile);
+        try {
+            if (Files.exists(path)) {
+                checkOwnerOnly(path);
+                byte[] existing = Files.readAllBytes(path);
+                if (existing.length == KEY_LENGTH) {
+                    return existing;
+                }
+                logger.warn("Session key file {} has wrong length. Creating a new key", keyFile);
+                Files.delete(path);
+            }
+            
+            byte[] created = newKey();
+            createOwnerOnly(path);
+            Files.write(path, created);
+            logger.info("Created session key file {}", keyFile);
+            return created;
+        } catch (IOException e) {
+            logger.error("Error using session key file {}: {}. Tokens will not survive a restart",
+                keyFile, e.getMessage(), e);
+            return newKey();
+        }
+    }
+    
+    /**
+     * Anyone who can read the key can forge a token for any account, so a key
+     * file that others can read or replace is refused rather than used.
+     */
+    private static void checkOwnerOnly(Path path) throws IOException {
+        if (!isPosix()) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+        permissions.retainAll(SHARED);
+        if (!permissions.isEmpty()) {
+            throw new IllegalStateException("Session key file " + path + " is accessible by other users "
+                + permissions + ". Restrict it to the owner (chmod 600) or delete it to create a new key");
+        }
+    }
+    
+    private static void createOwnerOnly(Path path) throws IOException {
+        if (isPosix()) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            return;
+        }
+        Files.createFile(path);
+        File file = path.toFile();
+        boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+            && file.setWritable(false, false) && file.setWritable(true, true);
+        if (!restricted) {
+            logger.warn("Could not restrict session key file {} to the owner", path);
+        }
+    }
+    
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+    
+    private static byte[] newKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+    
+    /**
+     * Reads the revocation log, keeping the latest epoch per user, and rewrites
+     * it without the entries whose tokens have all expired since.
+     */
+    private void loadRevocations() {
+        if (!Files.exists(revocationFile)) {
+            return;
+        }
+        
+        try {
+            for (String line : Files.readAllLines(revocationFile, StandardCharsets.UTF_8)) {
+                int separator = line.lastIndexOf(' ');
+                if (separator <= 0) {
+                    continue;
+                }
+                try {
+                    epochs.merge(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)), Math::max);
+                } catch (NumberFormatException e) {
+                    logger.warn("Skipping malformed line in {}", revocationFile);
+                }
+            }
+            
+            // A token older than an expired revocation has expired itself
+            long cutoff = System.currentTimeMillis() - ttlMillis;
+            epochs.values().removeIf(epoch -> epoch < cutoff);
+            List<String> lines = new ArrayList<>(epochs.size());
+            epochs.forEach((username, epoch) -> lines.add(username + " " + epoch));
+            Path temp = revocationFile.resolveSibling(revocationFile.getFileName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, revocationFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Error reading session revocations from {}: {}", revocationFile, e.getMessage(), e);
+        }
+    }
+    
+    public String issue(String username) {
+        String payload = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(username.getBytes(StandardCharsets.UTF_8))
+            + "." + epochs.getOrDefault(username, 0L)
+            + "." + (System.currentTimeMillis() + ttlMillis);
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+    }
+    
+    /**
+     * Invalidates every token issued to {@code username} so far, e.g. on logout
+     * or a password change. Tokens issued afterwards are valid again.
+     */
+    public void revoke(String username) {
+        long now = System.currentTimeMillis();
+        long epoch = epochs.merge(username, now, (old, ignored) -> Math.max(now, old + 1));
+        synchronized (revocationFile) {
+            try {
+                Files.writeString(revocationFile, username + " " + epoch + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.error("Error recording session revocation for {}: {}. It will not survive a restart",
+                    username, e.getMessage(), e);
+            }
+        }
+        logger.debug("Revoked session tokens for {}", username);
+    }
+    
+    /**
+     * Returns the user a token was issued to, or null if the token is malformed,
+     * forged, expired or revoked.
+     */
+    public String verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        
+        int macStart = token.lastIndexOf('.');
+        int expiryStart = token.lastIndexOf('.', macStart - 1);
+        int epochStart = expiryStart > 0 ? token.lastIndexOf('.', expiryStart - 1) : -1;
+        if (epochStart <= 0 || expiryStart <= epochStart + 1 || macStart <= expiryStart + 1) {
+            return null;
+        }
+        
+        try {
+            String payload = token.substring(0, macStart);
+            byte[] expected = sign(payload);
+            byte[] actual = Base64.getUrlDecoder().decode(token.substring(macStart + 1));
+            if (!MessageDigest.isEqual(expected, actual)) {
+                return null;
+            }
+            
+            long expiry = Long.parseLong(token.substring(expiryStart + 1, macStart));
+            if (System.currentTimeMillis() > expiry) {
+                return null;
+            }
+            String username = new String(Base64.getUrlDecoder().decode(token.substring(0, epochStart)),
+                StandardCharsets.UTF_8);
+            long epoch = Long.parseLong(token.substring(epochStart + 1, expiryStart));
+            if (epoch < epochs.getOrDefault(username, 0L)) {
+                return null;
+            }
+            return username;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private byte[] sign(String payload) {
+        return mac.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,46 @@
+package chat.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+public class TlsSupport {
+    private static final Logger logger = LoggerFactory.getLogger(TlsSupport.class);
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+    public static SSLContext createServerContext(String keyStorePath, char[] keyStorePassword,
+                                                 int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStorePath)) {
+            keyStore.load(input, keyStorePassword);
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, keyStorePassword);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+
+        // Session IDs are served from this cache; TLS 1.3 PSK and TLS 1.2 session
+        // tickets are stateless on the server and enabled by default in the JDK.
+        SSLSessionContext sessionContext = context.getServerSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+
+        logger.info("TLS context created. Session cache size: {}, session timeout: {} s",
+            sessionCacheSize, sessionTimeoutSeconds);
+        return context;
+    }
+
+    public static ServerSocket createServerSocket(SSLContext context, int port) throws IOException {
+        SSLServerSocket serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(port);
+        serverSocket.setEnabledProtocols(PROTOCOLS);
+        serverSocket.setNeedClientAuth(false);
+        return serverSocket;
+    }
+}
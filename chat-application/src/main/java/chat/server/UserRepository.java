@@ -1,99 +1,360 @@
 package chat.server;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.io.*;
-import java.lang.reflect.Type;
-import java.util.*;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
 
+import chat.metrics.LatencyHistogram;
 import chat.server.model.User;
+import chat.server.store.BloomFilter;
+import chat.server.store.UserStore;
 
 public class UserRepository {
     private static final Logger logger = LoggerFactory.getLogger(UserRepository.class);
-    private static final String USERS_FILE = "users.json";
-    private Map<String, User> users = new HashMap<>();
-    private Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final int MIN_FILTER_CAPACITY = 1 << 20;
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private final UserStore store;
+    private final BloomFilter usernameFilter;
+    private final User dummyUser;
+    private volatile boolean filterOverflowLogged = false;
+    private final LatencyHistogram registerLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LongAdder failedRegistrations = new LongAdder();
+    private final LongAdder failedLogins = new LongAdder();
+    private final LatencyHistogram storeWriteLatency = new LatencyHistogram();
+    private final LongAdder failedStoreWrites = new LongAdder();
     
-    public UserRepository() {
-        loadUsers();
+    public UserRepository(UserStore store) {
+        this.store = store;
+        this.usernameFilter = buildUsernameFilter();
+        // Checked against for unknown usernames, so a failed login costs the same
+        // hash whether or not the account exists
+        this.dummyUser = new User("", SecurityUtil.hashPassword(UUID.randomUUID().toString()));
     }
     
-    private synchronized void loadUsers() {
+    private BloomFilter buildUsernameFilter() {
+        long start = System.nanoTime();
+        int userCount = store.count();
+        BloomFilter filter = new BloomFilter(
+            Math.max(MIN_FILTER_CAPACITY, 2L * userCount), FILTER_FALSE_POSITIVE_RATE);
         try {
-            File file = new File(USERS_FILE);
-            if (file.exists()) {
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                Type type = new TypeToken<Map<String, User>>(){}.getType();
-                users = gson.fromJson(reader, type);
-                if (users == null) {
-                    users = new HashMap<>();
-                    logger.info("Created new empty user database");
-                } else {
-                    logger.info("Loaded {} users from file", users.size());
-                }
-                reader.close();
-            } else {
-                logger.info("User file not found. New file will be created.");
-                users = new HashMap<>();
-                saveUsers();
-            }
+            store.forEachUsername(filter::put);
         } catch (IOException e) {
-            logger.error("Error loading users: {}", e.getMessage(), e);
-            users = new HashMap<>();
+            // An incomplete filter would reject existing users, so fall back to
+            // one that lets every lookup through to the store
+            logger.error("Error building username filter: {}. Filter disabled", e.getMessage(), e);
+            return null;
+        }
+        logger.info("Built username filter over {} users in {} ms ({} KB, {} hash functions)",
+            userCount, (System.nanoTime() - start) / 1_000_000, filter.getSizeInBytes() / 1024,
+            filter.getHashFunctions());
+        return filter;
+    }
+    
+    private boolean mightExist(String username) {
+        return usernameFilter == null || usernameFilter.mightContain(username);
+    }
+    
+    private void addToFilter(String username) {
+        if (usernameFilter == null) {
+            return;
+        }
+        usernameFilter.put(username);
+        if (!filterOverflowLogged && usernameFilter.getInsertions() > usernameFilter.getExpectedInsertions()) {
+            filterOverflowLogged = true;
+            logger.warn("Username filter is over its capacity of {} names. It is resized on the next restart",
+                usernameFilter.getExpectedInsertions());
+        }
+    }
+    
+    public boolean register(String username, String password) {
+        ServerEvents.AuthAttempt event = new ServerEvents.AuthAttempt();
+        event.begin();
+        long start = System.nanoTime();
+        boolean registered = tryRegister(username, password, event);
+        registerLatency.record(System.nanoTime() - start);
+        if (!registered) {
+            failedRegistrations.increment();
         }
+        commit(event, "register", username, registered);
+        return registered;
+    }
+    
+    /**
+     * Registers with only the password hash running on {@code hasher}. The
+     * insert then waits for the store's commit without holding a hashing
+     * thread, so registrations are not capped at the hasher's thread count
+     * per group commit.
+     */
+    public CompletableFuture<Boolean> registerAsync(String username, String password, AuthExecutor hasher) {
+        ServerEvents.AuthAttempt event = new ServerEvents.AuthAttempt();
+        event.begin();
+        long start = System.nanoTime();
+        return hasher.submit(() -> newUser(username, password, event))
+            .thenCompose(user -> user == null
+                ? CompletableFuture.completedFuture(false)
+                : insertUserAsync(user).handle((inserted, error) -> registered(username, inserted, error, event)))
+            .whenComplete((registered, error) -> {
+                // Requests the hasher turned away never started, as with register()
+                if (event.outcome == null) {
+                    return;
+                }
+                registerLatency.record(System.nanoTime() - start);
+                boolean success = error == null && registered;
+                if (!success) {
+                    failedRegistrations.increment();
+                }
+                commit(event, "register", username, success);
+            });
     }
     
-    private synchronized void saveUsers() {
+    private boolean tryRegister(String username, String password, ServerEvents.AuthAttempt event) {
+        User user = newUser(username, password, event);
+        if (user == null) {
+            return false;
+        }
         try {
-            FileWriter writer = new FileWriter(USERS_FILE);
-            gson.toJson(users, writer);
-            writer.close();
-            logger.debug("Saved {} users to file", users.size());
+            return registered(username, insertUser(user), null, event);
         } catch (IOException e) {
-            logger.error("Error saving users: {}", e.getMessage(), e);
+            return registered(username, false, e, event);
         }
     }
     
-    public boolean register(String username, String password) {
-        if (users.containsKey(username)) {
+    /**
+     * Checks that the name is free and hashes the password. Returns null, with
+     * the outcome set on {@code event}, if the user should not be inserted.
+     */
+    private User newUser(String username, String password, ServerEvents.AuthAttempt event) {
+        if (userExists(username)) {
             logger.warn("Registration failed: user {} already exists", username);
-            return false;
+            event.outcome = "exists";
+            return null;
         }
         
+        long hashStart = System.nanoTime();
         String hashedPassword = SecurityUtil.hashPassword(password);
+        event.hashDuration = System.nanoTime() - hashStart;
         if (hashedPassword == null) {
             logger.error("Failed to hash password for user {}", username);
-            return false;
+            event.outcome = "hash error";
+            return null;
         }
         
-        users.put(username, new User(username, hashedPassword));
-        saveUsers();
+        // Added before the insert so a login racing with it never misses the name
+        addToFilter(username);
+        return new User(username, hashedPassword);
+    }
+    
+    private boolean registered(String username, Boolean inserted, Throwable error, ServerEvents.AuthAttempt event) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            logger.error("Error storing user {}: {}", username, cause.getMessage(), cause);
+            event.outcome = "store error";
+            return false;
+        }
+        if (!inserted) {
+            logger.warn("Registration failed: user {} already exists", username);
+            event.outcome = "exists";
+            return false;
+        }
         logger.info("User {} registered successfully", username);
+        event.outcome = "registered";
         return true;
     }
     
     public boolean login(String username, String password) {
-        User user = users.get(username);
+        ServerEvents.AuthAttempt event = new ServerEvents.AuthAttempt();
+        event.begin();
+        long start = System.nanoTime();
+        boolean success = tryLogin(username, password, event);
+        loginLatency.record(System.nanoTime() - start);
+        if (!success) {
+            failedLogins.increment();
+        }
+        commit(event, "login", username, success);
+        return success;
+    }
+    
+    private boolean tryLogin(String username, String password, ServerEvents.AuthAttempt event) {
+        User user = mightExist(username) ? findUser(username) : null;
+        long hashStart = System.nanoTime();
         if (user == null) {
+            SecurityUtil.checkPassword(password, dummyUser);
+            event.hashDuration = System.nanoTime() - hashStart;
             logger.warn("Login failed: user {} not found", username);
+            event.outcome = "unknown user";
             return false;
         }
         
-        boolean success = SecurityUtil.checkPassword(password, user.getPasswordHash());
+        boolean success = SecurityUtil.checkPassword(password, user);
+        event.hashDuration = System.nanoTime() - hashStart;
         if (!success) {
             logger.warn("Login failed: incorrect password for user {}", username);
+            event.outcome = "wrong password";
+        } else if (SecurityUtil.needsRehash(user)) {
+            rehash(username, password);
+            event.outcome = "rehashed";
+        } else {
+            event.outcome = "success";
         }
         return success;
     }
     
-    public synchronized boolean userExists(String username) {
-        return users.containsKey(username);
+    private static void commit(ServerEvents.AuthAttempt event, String operation, String username, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.username = username;
+            event.success = success;
+            event.commit();
+        }
+    }
+    
+    private void rehash(String username, String password) {
+        String hashedPassword = SecurityUtil.hashPassword(password);
+        if (hashedPassword == null) {
+            return;
+        }
+        
+        // Not awaited: the login succeeds either way, and waiting for the commit
+        // would hold a hashing thread for it
+        int iterations = SecurityUtil.getIterations();
+        updateUserAsync(new User(username, hashedPassword)).whenComplete((ignored, error) -> {
+            if (error == null) {
+                logger.info("Password hash for user {} upgraded to {} iterations", username, iterations);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.warn("Error upgrading password hash for user {}: {}", username, cause.getMessage(), cause);
+            }
+        });
+    }
+    
+    /**
+     * Store writes, timed until the store reports them durable.
+     */
+    private boolean insertUser(User user) throws IOException {
+        ServerEvents.UserStoreWrite event = new ServerEvents.UserStoreWrite();
+        event.begin();
+        long start = System.nanoTime();
+        boolean inserted = false;
+        try {
+            inserted = store.insert(user);
+            return inserted;
+        } catch (IOException e) {
+            failedStoreWrites.increment();
+            throw e;
+        } finally {
+            storeWriteLatency.record(System.nanoTime() - start);
+            commit(event, "insert", user, inserted);
+        }
+    }
+    
+    private CompletableFuture<Boolean> insertUserAsync(User user) {
+        ServerEvents.UserStoreWrite event = new ServerEvents.UserStoreWrite();
+        event.begin();
+        long start = System.nanoTime();
+        return store.insertAsync(user).whenComplete((inserted, error) -> {
+            if (error != null) {
+                failedStoreWrites.increment();
+            }
+            storeWriteLatency.record(System.nanoTime() - start);
+            commit(event, "insert", user, error == null && inserted);
+        });
+    }
+    
+    private CompletableFuture<Void> updateUserAsync(User user) {
+        ServerEvents.UserStoreWrite event = new ServerEvents.UserStoreWrite();
+        event.begin();
+        long start = System.nanoTime();
+        CompletableFuture<Void> updated;
+        try {
+            updated = store.updateAsync(user);
+        } catch (RuntimeException e) {
+            updated = CompletableFuture.failedFuture(e);
+        }
+        return updated.whenComplete((ignored, error) -> {
+            if (error != null) {
+                failedStoreWrites.increment();
+            }
+            storeWriteLatency.record(System.nanoTime() - start);
+            commit(event, "update", user, error == null);
+        });
+    }
+    
+    private void commit(ServerEvents.UserStoreWrite event, String operation, User user, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.store = store.getName();
+            event.username = user.getUsername();
+            event.success = success;
+            event.commit();
+        }
+    }
+    
+    private User findUser(String username) {
+        try {
+            return store.find(username);
+        } catch (IOException e) {
+            logger.error("Error reading user {}: {}", username, e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    public boolean userExists(String username) {
+        return mightExist(username) && findUser(username) != null;
+    }
+    
+    public int getUserCount() {
+        return store.count();
+    }
+    
+    public UserStore getStore() {
+        return store;
+    }
+    
+    public LatencyHistogram getRegisterLatency() {
+        return registerLatency;
+    }
+    
+    public LatencyHistogram getLoginLatency() {
+        return loginLatency;
+    }
+    
+    public LatencyHistogram getStoreWriteLatency() {
+        return storeWriteLatency;
     }
     
-    public synchronized int getUserCount() {
-        return users.size();
+    public long getFailedStoreWrites() {
+        return failedStoreWrites.sum();
+    }
+    
+    public long getFailedRegistrations() {
+        return failedRegistrations.sum();
+    }
+    
+    public long getFailedLogins() {
+        return failedLogins.sum();
+    }
+    
+    public void resetStats() {
+        registerLatency.reset();
+        loginLatency.reset();
+        failedRegistrations.reset();
+        failedLogins.reset();
+        storeWriteLatency.reset();
+        failedStoreWrites.reset();
+    }
+    
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.error("Error closing user store: {}", e.getMessage(), e);
+        }
     }
-}
\ No newline at end of file
+}
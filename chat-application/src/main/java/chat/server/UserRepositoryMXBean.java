@@ -0,0 +1,42 @@
+package chat.server;
+
+/**
+ * Registration and login metrics, registered as
+ * {@code chat:type=UserRepository,port=<port>}. Latencies include password
+ * hashing and the store write.
+ */
+public interface UserRepositoryMXBean {
+    String getStoreName();
+    
+    int getUserCount();
+    
+    long getRegistrations();
+    
+    long getFailedRegistrations();
+    
+    double getRegisterMeanMillis();
+    
+    double getRegisterP50Millis();
+    
+    double getRegisterP99Millis();
+    
+    double getRegisterMaxMillis();
+    
+    long getLogins();
+    
+    long getFailedLogins();
+    
+    double getLoginMeanMillis();
+    
+    double getLoginP50Millis();
+    
+    double getLoginP99Millis();
+    
+    double getLoginMaxMillis();
+    
+    /**
+     * Clears the latencies and the registration, login and store write
+     * failure counts.
+     */
+    void resetLatencies();
+}
@@ -0,0 +1,87 @@
+package chat.server;
+
+/**
+ * JMX view of a UserRepository's registration and login metrics.
+ */
+class UserRepositoryStats implements UserRepositoryMXBean {
+    private final UserRepository repository;
+    
+    UserRepositoryStats(UserRepository repository) {
+        this.repository = repository;
+    }
+    
+    @Override
+    public String getStoreName() {
+        return repository.getStore().getName();
+    }
+    
+    @Override
+    public int getUserCount() {
+        return repository.getUserCount();
+    }
+    
+    @Override
+    public long getRegistrations() {
+        return repository.getRegisterLatency().getCount();
+    }
+    
+    @Override
+    public long getFailedRegistrations() {
+        return repository.getFailedRegistrations();
+    }
+    
+    @Override
+    public double getRegisterMeanMillis() {
+        return repository.getRegisterLatency().getMeanNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public double getRegisterP50Millis() {
+        return repository.getRegisterLatency().getValueAtPercentileMillis(50);
+    }
+    
+    @Override
+    public double getRegisterP99Millis() {
+        return repository.getRegisterLatency().getValueAtPercentileMillis(99);
+    }
+    
+    @Override
+    public double getRegisterMaxMillis() {
+        return repository.getRegisterLatency().getMaxNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public long getLogins() {
+        return repository.getLoginLatency().getCount();
+    }
+    
+    @Override
+    public long getFailedLogins() {
+        return repository.getFailedLogins();
+    }
+    
+    @Override
+    public double getLoginMeanMillis() {
+        return repository.getLoginLatency().getMeanNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public double getLoginP50Millis() {
+        return repository.getLoginLatency().getValueAtPercentileMillis(50);
+    }
+    
+    @Override
+    public double getLoginP99Millis() {
+        return repository.getLoginLatency().getValueAtPercentileMillis(99);
+    }
+    
+    @Override
+    public double getLoginMaxMillis() {
+        return repository.getLoginLatency().getMaxNanos() / 1_000_000.0;
+    }
+    
+    @Override
+    public void resetLatencies() {
+        repository.resetStats();
+    }
+}
@@ -0,0 +1,36 @@
+package chat.server.model;
+
+/**
+ * A stored password hash decoded into its parts. Immutable, so it can be
+ * cached on a {@link User} and shared between threads.
+ */
+public final class Credential {
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+    
+    /**
+     * @param iterations PBKDF2 iteration count, or 0 for the legacy SHA-256 format
+     */
+    public Credential(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+    
+    public boolean isLegacy() {
+        return iterations == 0;
+    }
+    
+    public int getIterations() {
+        return iterations;
+    }
+    
+    public byte[] getSalt() {
+        return salt;
+    }
+    
+    public byte[] getHash() {
+        return hash;
+    }
+}
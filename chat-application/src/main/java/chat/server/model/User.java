@@ -3,6 +3,7 @@ package chat.server.model;
 public class User {
     private String username;
     private String passwordHash;
+    private transient volatile Credential credential;
     
     public User() {}
     
@@ -25,5 +26,18 @@ public class User {
     
     public void setPasswordHash(String passwordHash) {
         this.passwordHash = passwordHash;
+        this.credential = null;
+    }
+    
+    /**
+     * Returns the decoded form of {@link #getPasswordHash()}, or null if it has
+     * not been decoded yet.
+     */
+    public Credential getCredential() {
+        return credential;
+    }
+    
+    public void setCredential(Credential credential) {
+        this.credential = credential;
     }
 }
\ No newline at end of file
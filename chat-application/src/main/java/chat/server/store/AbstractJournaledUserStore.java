@@ -0,0 +1,183 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.StampedLock;
+
+import chat.server.model.User;
+
+public abstract class AbstractJournaledUserStore implements UserStore {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractJournaledUserStore.class);
+    private static final int COMPACTION_THRESHOLD = 1000;
+    private static final long COMPACTION_INTERVAL_SECONDS = 60;
+    private static final int LOCK_STRIPES = 64;
+
+    protected final String basePath;
+    private final UserJournal journal;
+    private final Path compactingPath;
+    private final Object[] registrationLocks = new Object[LOCK_STRIPES];
+    private final Set<String> reservedUsernames = ConcurrentHashMap.newKeySet();
+    // A StampedLock because a writer's read stamp is released by the journal's
+    // committer thread once the record is durable, not by the thread that took it
+    private final StampedLock journalRotationLock = new StampedLock();
+    private final Object compactionLock = new Object();
+    private ScheduledExecutorService compactor;
+
+    protected AbstractJournaledUserStore(String basePath, int commitBatchSize, long commitMaxLatencyMicros) {
+        this.basePath = basePath;
+        this.journal = new UserJournal(Paths.get(basePath + ".journal"), commitBatchSize, commitMaxLatencyMicros);
+        this.compactingPath = Paths.get(basePath + ".journal.compacting");
+        for (int i = 0; i < registrationLocks.length; i++) {
+            registrationLocks[i] = new Object();
+        }
+    }
+
+    protected abstract void applyCommitted(User user);
+
+    /**
+     * Makes everything applied so far durable outside the journal. Called after
+     * the journal has been rotated, so the rotated records may then be dropped.
+     */
+    protected abstract void checkpoint() throws IOException;
+
+    protected void openJournal() throws IOException {
+        int replayed = UserJournal.replay(compactingPath, this::applyJournalRecord, true);
+        replayed += journal.open(this::applyJournalRecord);
+        logger.info("Replayed {} journal records for {}", replayed, basePath);
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UserJournal-Compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            if (journal.getRecordCount() >= COMPACTION_THRESHOLD) {
+                compact();
+            }
+        }, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void applyJournalRecord(String username, String passwordHash) {
+        applyCommitted(new User(username, passwordHash));
+    }
+
+    @Override
+    public boolean insert(User user) throws IOException {
+        return await(insertAsync(user));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> insertAsync(User user) {
+        String username = user.getUsername();
+        try {
+            synchronized (registrationLockFor(username)) {
+                if (find(username) != null || !reservedUsernames.add(username)) {
+                    return CompletableFuture.completedFuture(false);
+                }
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // The journal group-commits concurrent registrations; the reservation keeps
+        // the name taken while this one waits for its batch to become durable.
+        return appendAndApply(user).handle((ignored, error) -> {
+            reservedUsernames.remove(username);
+            if (error != null) {
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public void update(User user) throws IOException {
+        await(updateAsync(user));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAsync(User user) {
+        return appendAndApply(user);
+    }
+
+    private CompletableFuture<Void> appendAndApply(User user) {
+        long stamp = journalRotationLock.readLock();
+        CompletableFuture<Void> durable;
+        try {
+            durable = journal.appendAsync(user.getUsername(), user.getPasswordHash());
+        } catch (RuntimeException e) {
+            journalRotationLock.unlockRead(stamp);
+            throw e;
+        }
+        return durable.whenComplete((ignored, error) -> {
+            try {
+                if (error == null) {
+                    applyCommitted(user);
+                }
+            } finally {
+                journalRotationLock.unlockRead(stamp);
+            }
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for journal commit");
+        }
+    }
+
+    private Object registrationLockFor(String username) {
+        return registrationLocks[(username.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    public void compact() {
+        synchronized (compactionLock) {
+            try {
+                long stamp = journalRotationLock.writeLock();
+                try {
+                    if (!Files.exists(compactingPath)) {
+                        journal.rotate(compactingPath);
+                    }
+                } finally {
+                    journalRotationLock.unlockWrite(stamp);
+                }
+
+                // Every record in the rotated journal is already applied: writers hold
+                // the read lock from journal append until applyCommitted returns.
+                checkpoint();
+                Files.deleteIfExists(compactingPath);
+            } catch (IOException e) {
+                logger.error("Error compacting user journal {}: {}", basePath, e.getMessage(), e);
+            }
+        }
+    }
+
+    public long getJournalCommitCount() {
+        return journal.getCommitCount();
+    }
+
+    protected boolean hasJournalRecords() {
+        return journal.getRecordCount() > 0 || Files.exists(compactingPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        if (hasJournalRecords()) {
+            compact();
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,45 @@
+package chat.server.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import chat.server.model.User;
+
+public class InMemoryUserStore implements UserStore {
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    @Override
+    public User find(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public boolean insert(User user) {
+        return users.putIfAbsent(user.getUsername(), user) == null;
+    }
+
+    @Override
+    public void update(User user) {
+        users.put(user.getUsername(), user);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        users.keySet().forEach(action);
+    }
+
+    @Override
+    public int count() {
+        return users.size();
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public void close() {
+    }
+}
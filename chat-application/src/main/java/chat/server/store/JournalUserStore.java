@@ -0,0 +1,75 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import chat.server.model.User;
+
+public class JournalUserStore extends AbstractJournaledUserStore {
+    private static final Logger logger = LoggerFactory.getLogger(JournalUserStore.class);
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Path snapshotPath;
+
+    public JournalUserStore(String basePath, int commitBatchSize, long commitMaxLatencyMicros) throws IOException {
+        super(basePath, commitBatchSize, commitMaxLatencyMicros);
+        this.snapshotPath = Paths.get(basePath + ".snap");
+
+        long start = System.nanoTime();
+        if (Files.exists(snapshotPath)) {
+            UserSnapshot.read(snapshotPath, batch -> {
+                for (User user : batch) {
+                    users.put(user.getUsername(), user);
+                }
+            }, Runtime.getRuntime().availableProcessors());
+        }
+
+        Path jsonPath = Paths.get(basePath + ".json");
+        if (Files.exists(jsonPath)) {
+            Map<String, User> legacy = UserSnapshot.readJson(jsonPath);
+            legacy.forEach(users::putIfAbsent);
+            UserSnapshot.write(snapshotPath, new ArrayList<>(users.values()));
+            Files.move(jsonPath, Paths.get(basePath + ".json.migrated"), StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Migrated {} users from {}", legacy.size(), jsonPath);
+        }
+
+        openJournal();
+        logger.info("Loaded {} users from {} in {} ms", users.size(), snapshotPath,
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    protected void applyCommitted(User user) {
+        users.put(user.getUsername(), user);
+    }
+
+    @Override
+    protected void checkpoint() throws IOException {
+        UserSnapshot.write(snapshotPath, new ArrayList<>(users.values()));
+    }
+
+    @Override
+    public User find(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        users.keySet().forEach(action);
+    }
+
+    @Override
+    public int count() {
+        return users.size();
+    }
+
+    @Override
+    public String getName() {
+        return "journal";
+    }
+}
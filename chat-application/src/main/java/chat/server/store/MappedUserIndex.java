@@ -0,0 +1,610 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import chat.server.model.User;
+
+public class MappedUserIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MappedUserIndex.class);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int MAGIC = 0x43555358;
+    private static final int FORMAT_VERSION = 2;
+    private static final int UNSEEDED_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final double MAX_LOAD = 0.7;
+    private static final int MIN_DEAD_RECORDS = 10000;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int DIRTY_OFFSET = 16;
+    private static final int SEED_OFFSET = 24;
+    private static final int RECORDS_OFFSET = 32;
+    private static final int DATA_GENERATION_OFFSET = 40;
+
+    private static final class Table {
+        final long generation;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final int version;
+        final long seed;
+        // The data file the references point into, baseName.dat for 0
+        final long dataGeneration;
+        final FileChannel data;
+
+        Table(long generation, Path path, MappedByteBuffer buffer, int capacity, int version, long seed,
+                long dataGeneration, FileChannel data) {
+            this.generation = generation;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.version = version;
+            this.seed = seed;
+            this.dataGeneration = dataGeneration;
+            this.data = data;
+        }
+    }
+
+    private final Path directory;
+    private final String baseName;
+    private volatile Table table;
+    private volatile int count;
+    // Records in the data file, superseded ones included
+    private long records;
+
+    private MappedUserIndex(Path directory, String baseName, Table table) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.table = table;
+        this.count = table.buffer.getInt(COUNT_OFFSET);
+        this.records = table.buffer.getLong(RECORDS_OFFSET);
+    }
+
+    public static boolean exists(Path directory, String baseName) throws IOException {
+        return !listGenerations(directory, baseName).isEmpty();
+    }
+
+    public static MappedUserIndex open(Path directory, String baseName) throws IOException {
+        Table table = null;
+        List<Long> generations = listGenerations(directory, baseName);
+        for (int i = generations.size() - 1; i >= 0 && table == null; i--) {
+            try {
+                table = mapTable(directory, baseName, generations.get(i));
+            } catch (IOException e) {
+                logger.warn("Skipping unusable user index generation {}: {}", generations.get(i), e.getMessage());
+            }
+        }
+        if (table == null) {
+            if (!generations.isEmpty()) {
+                throw new IOException("No usable user index in " + directory.toAbsolutePath());
+            }
+            table = createTable(directory, baseName, 0, INITIAL_CAPACITY, newSeed(), 0,
+                openData(directory, baseName, 0));
+            seal(table);
+            logger.info("Created user index {} with {} slots", table.path, table.capacity);
+        }
+        deleteOtherGenerations(directory, baseName, table.generation);
+        deleteOtherDataFiles(directory, baseName, table.dataGeneration);
+
+        MappedUserIndex index = new MappedUserIndex(directory, baseName, table);
+        if (table.buffer.getInt(DIRTY_OFFSET) != 0) {
+            index.recount();
+        }
+        if (table.version == UNSEEDED_VERSION) {
+            index.reseed();
+        }
+        if (index.records < index.count) {
+            // Written before the index kept a record count
+            index.records = index.scanRecords(index.table, username -> {
+            });
+            index.table.buffer.putLong(RECORDS_OFFSET, index.records);
+            index.table.buffer.force();
+        }
+        logger.info("Opened user index {} with {} users in {} slots", index.table.path, index.count,
+            index.table.capacity);
+        return index;
+    }
+
+    public User find(String username) throws IOException {
+        Table current = table;
+        try {
+            return find(current, username);
+        } catch (ClosedChannelException e) {
+            // The data file was compacted away during the lookup; the new one
+            // holds the same users
+            if (table == current) {
+                throw e;
+            }
+            return find(table, username);
+        }
+    }
+
+    private User find(Table current, String username) throws IOException {
+        int hash = hash(current.seed, username);
+        int mask = current.capacity - 1;
+
+        for (int i = hash & mask, probes = 0; probes < current.capacity; i = (i + 1) & mask, probes++) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            long reference = (long) LONGS.getAcquire(current.buffer, slot);
+            if (reference == 0) {
+                return null;
+            }
+            if (current.buffer.getInt(slot + 8) == hash) {
+                User user = readRecord(current, reference - 1);
+                if (user != null && user.getUsername().equals(username)) {
+                    return user;
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String username) throws IOException {
+        return find(username) != null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Visits the username of every record in the data file, in file order. This
+     * includes names of superseded records and of records an interrupted putAll
+     * wrote but never published, so a name may be seen more than once.
+     */
+    public void forEachUsername(Consumer<String> action) throws IOException {
+        Table current = table;
+        try {
+            scanRecords(current, action);
+        } catch (NoSuchFileException e) {
+            // Compacted away before the scan started, so nothing was visited yet
+            if (table == current) {
+                throw e;
+            }
+            scanRecords(table, action);
+        }
+    }
+
+    private long scanRecords(Table current, Consumer<String> action) throws IOException {
+        long end = current.data.size();
+        long scanned = 0;
+        byte[] payload = new byte[64 * 1024];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(dataPath(directory, baseName, current.dataGeneration)), 1 << 16))) {
+            long position = 0;
+            while (position + RECORD_HEADER_SIZE <= end) {
+                int length = in.readInt();
+                in.readInt();
+                if (length <= 0 || length > payload.length || position + RECORD_HEADER_SIZE + length > end) {
+                    break;
+                }
+                in.readFully(payload, 0, length);
+                action.accept(new DataInputStream(new ByteArrayInputStream(payload, 0, length)).readUTF());
+                position += RECORD_HEADER_SIZE + length;
+                scanned++;
+            }
+        } catch (EOFException ignored) {
+        }
+        return scanned;
+    }
+
+    public synchronized void putAll(Collection<User> users) throws IOException {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        ensureCapacity(count + users.size());
+        Table current = table;
+        current.buffer.putInt(DIRTY_OFFSET, 1);
+        current.buffer.force();
+
+        long[] references = new long[users.size()];
+        int n = 0;
+        long position = current.data.size();
+        for (User user : users) {
+            ByteBuffer record = UserJournal.encode(user.getUsername(), user.getPasswordHash());
+            references[n++] = position + 1;
+            while (record.hasRemaining()) {
+                position += current.data.write(record, position);
+            }
+        }
+        current.data.force(false);
+
+        n = 0;
+        for (User user : users) {
+            if (publish(current, user.getUsername(), references[n++])) {
+                count++;
+            }
+        }
+
+        records += users.size();
+        current.buffer.putInt(COUNT_OFFSET, count);
+        current.buffer.putLong(RECORDS_OFFSET, records);
+        current.buffer.putInt(DIRTY_OFFSET, 0);
+        current.buffer.force();
+
+        if (records - count > Math.max(MIN_DEAD_RECORDS, count)) {
+            compact();
+        }
+    }
+
+    private boolean publish(Table target, String username, long reference) throws IOException {
+        int hash = hash(target.seed, username);
+        int mask = target.capacity - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            long existing = (long) LONGS.getAcquire(target.buffer, slot);
+            if (existing == 0) {
+                // The hash must be visible before the reference that makes the slot live
+                target.buffer.putInt(slot + 8, hash);
+                LONGS.setRelease(target.buffer, slot, reference);
+                return true;
+            }
+            if (target.buffer.getInt(slot + 8) == hash) {
+                User user = readRecord(target, existing - 1);
+                if (user != null && user.getUsername().equals(username)) {
+                    LONGS.setRelease(target.buffer, slot, reference);
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        Table current = table;
+        if (required <= current.capacity * MAX_LOAD) {
+            return;
+        }
+
+        int capacity = current.capacity;
+        while (required > capacity * MAX_LOAD) {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IOException("User index is full: " + required + " users");
+            }
+            capacity <<= 1;
+        }
+
+        // The stored hashes are copied as they are, so the seed stays the same
+        Table resized = createTable(directory, baseName, current.generation + 1, capacity, current.seed,
+            current.dataGeneration, current.data);
+        int mask = capacity - 1;
+        for (int i = 0; i < current.capacity; i++) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            long reference = (long) LONGS.getAcquire(current.buffer, slot);
+            if (reference == 0) {
+                continue;
+            }
+            int hash = current.buffer.getInt(slot + 8);
+            int j = hash & mask;
+            while (resized.buffer.getLong(HEADER_SIZE + j * SLOT_SIZE) != 0) {
+                j = (j + 1) & mask;
+            }
+            resized.buffer.putInt(HEADER_SIZE + j * SLOT_SIZE + 8, hash);
+            resized.buffer.putLong(HEADER_SIZE + j * SLOT_SIZE, reference);
+        }
+        resized.buffer.putInt(COUNT_OFFSET, count);
+        resized.buffer.putLong(RECORDS_OFFSET, records);
+        seal(resized);
+
+        table = resized;
+        logger.info("Resized user index from {} to {} slots", current.capacity, capacity);
+        deleteOtherGenerations(directory, baseName, resized.generation);
+    }
+
+    /**
+     * Rebuilds a table from before the hashes were seeded under a new seed. Each
+     * live record is read once to hash its name again.
+     */
+    private void reseed() throws IOException {
+        Table current = table;
+        Table reseeded = createTable(directory, baseName, current.generation + 1, current.capacity, newSeed(),
+            current.dataGeneration, current.data);
+        int live = 0;
+        for (int i = 0; i < current.capacity; i++) {
+            long reference = current.buffer.getLong(HEADER_SIZE + i * SLOT_SIZE);
+            if (reference == 0) {
+                continue;
+            }
+            User user = readRecord(current, reference - 1);
+            if (user != null && publish(reseeded, user.getUsername(), reference)) {
+                live++;
+            }
+        }
+        count = live;
+        reseeded.buffer.putInt(COUNT_OFFSET, live);
+        seal(reseeded);
+
+        table = reseeded;
+        logger.info("Rehashed user index {} with a random seed: {} users", reseeded.path, live);
+        deleteOtherGenerations(directory, baseName, reseeded.generation);
+    }
+
+    /**
+     * Every update appends a record and leaves the one it supersedes in place,
+     * so once most of the data file is dead it is rewritten with only the
+     * records the table references. The new table keeps every slot where it
+     * was and points into the new file; sealing it is what makes the switch,
+     * so a crash before that leaves the old table and file in use.
+     */
+    private void compact() {
+        Table current = table;
+        long generation = current.generation + 1;
+        Path path = dataPath(directory, baseName, generation);
+        long start = System.nanoTime();
+        FileChannel data = null;
+        Table compacted;
+        try {
+            data = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            compacted = createTable(directory, baseName, generation, current.capacity, current.seed, generation,
+                data);
+            // Not closed, closing the stream would close the channel
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(compacted.data), 1 << 16);
+            long position = 0;
+            for (int i = 0; i < current.capacity; i++) {
+                int slot = HEADER_SIZE + i * SLOT_SIZE;
+                long reference = current.buffer.getLong(slot);
+                if (reference == 0) {
+                    continue;
+                }
+                User user = readRecord(current, reference - 1);
+                if (user == null) {
+                    throw new IOException("Unreadable user record at offset " + (reference - 1));
+                }
+                ByteBuffer record = UserJournal.encode(user.getUsername(), user.getPasswordHash());
+                out.write(record.array(), 0, record.limit());
+                compacted.buffer.putInt(slot + 8, current.buffer.getInt(slot + 8));
+                compacted.buffer.putLong(slot, position + 1);
+                position += record.limit();
+            }
+            out.flush();
+            compacted.data.force(false);
+            compacted.buffer.putInt(COUNT_OFFSET, count);
+            compacted.buffer.putLong(RECORDS_OFFSET, count);
+            seal(compacted);
+        } catch (IOException e) {
+            logger.error("Error compacting user data file: {}. Keeping the current one", e.getMessage(), e);
+            if (data != null) {
+                closeQuietly(data);
+            }
+            deleteOtherGenerations(directory, baseName, current.generation);
+            deleteOtherDataFiles(directory, baseName, current.dataGeneration);
+            return;
+        }
+
+        long before = records;
+        table = compacted;
+        records = count;
+        // Lookups still reading the old file retry on the new table
+        closeQuietly(current.data);
+        deleteOtherGenerations(directory, baseName, compacted.generation);
+        deleteOtherDataFiles(directory, baseName, compacted.dataGeneration);
+        logger.info("Compacted user data file from {} to {} records in {} ms", before, count,
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void recount() {
+        Table current = table;
+        int live = 0;
+        for (int i = 0; i < current.capacity; i++) {
+            if (current.buffer.getLong(HEADER_SIZE + i * SLOT_SIZE) != 0) {
+                live++;
+            }
+        }
+        count = live;
+        current.buffer.putInt(COUNT_OFFSET, live);
+        current.buffer.putInt(DIRTY_OFFSET, 0);
+        current.buffer.force();
+        logger.warn("User index was not closed cleanly. Recounted {} users", live);
+    }
+
+    private User readRecord(Table current, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(current.data, header, position);
+        int length = header.getInt(0);
+        int expectedCrc = header.getInt(4);
+        if (length <= 0 || length > 64 * 1024) {
+            logger.error("Invalid user record at offset {}", position);
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(current.data, payload, position + RECORD_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != expectedCrc) {
+            logger.error("CRC mismatch in user record at offset {}", position);
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+        return new User(in.readUTF(), in.readUTF());
+    }
+
+    private static void readFully(FileChannel data, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = data.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of user data file at " + position);
+            }
+        }
+    }
+
+    /**
+     * Slots keep only this hash and every slot that matches costs a read from
+     * the data file, so names that collide must not be predictable. Unlike
+     * String.hashCode, every step mixes in a per-index random seed.
+     */
+    private static int hash(long seed, String username) {
+        long h = seed;
+        for (int i = 0; i < username.length(); i++) {
+            h = (h ^ username.charAt(i)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        h = (h ^ seed ^ username.length()) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long newSeed() {
+        return new SecureRandom().nextLong();
+    }
+
+    private static Path tablePath(Path directory, String baseName, long generation) {
+        return directory.resolve(baseName + ".idx." + generation);
+    }
+
+    private static Path dataPath(Path directory, String baseName, long dataGeneration) {
+        return directory.resolve(dataGeneration == 0 ? baseName + ".dat" : baseName + ".dat." + dataGeneration);
+    }
+
+    private static FileChannel openData(Path directory, String baseName, long dataGeneration) throws IOException {
+        // Only the original data file may be missing; a compacted one is
+        // written before any table refers to it
+        return dataGeneration == 0
+            ? FileChannel.open(dataPath(directory, baseName, 0),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(dataPath(directory, baseName, dataGeneration),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static Table createTable(Path directory, String baseName, long generation, int capacity, long seed,
+            long dataGeneration, FileChannel data) throws IOException {
+        Path path = tablePath(directory, baseName, generation);
+        long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(VERSION_OFFSET, FORMAT_VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putInt(COUNT_OFFSET, 0);
+            buffer.putInt(DIRTY_OFFSET, 0);
+            buffer.putLong(SEED_OFFSET, seed);
+            buffer.putLong(DATA_GENERATION_OFFSET, dataGeneration);
+            return new Table(generation, path, buffer, capacity, FORMAT_VERSION, seed, dataGeneration, data);
+        }
+    }
+
+    private static void seal(Table table) {
+        table.buffer.force();
+        table.buffer.putInt(MAGIC_OFFSET, MAGIC);
+        table.buffer.force();
+    }
+
+    private static Table mapTable(Path directory, String baseName, long generation) throws IOException {
+        Path path = tablePath(directory, baseName, generation);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int version = buffer.getInt(VERSION_OFFSET);
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC
+                    || (version != FORMAT_VERSION && version != UNSEEDED_VERSION)) {
+                throw new IOException("Not a user index file: " + path);
+            }
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (Integer.bitCount(capacity) != 1 || HEADER_SIZE + (long) capacity * SLOT_SIZE != channel.size()) {
+                throw new IOException("Corrupt user index header in " + path);
+            }
+            long dataGeneration = buffer.getLong(DATA_GENERATION_OFFSET);
+            return new Table(generation, path, buffer, capacity, version, buffer.getLong(SEED_OFFSET),
+                dataGeneration, openData(directory, baseName, dataGeneration));
+        }
+    }
+
+    private static List<Long> listGenerations(Path directory, String baseName) throws IOException {
+        String prefix = baseName + ".idx.";
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix)) {
+                    try {
+                        generations.add(Long.parseLong(name.substring(prefix.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static void deleteOtherGenerations(Path directory, String baseName, long keep) {
+        String prefix = baseName + ".idx.";
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && !name.equals(prefix + keep)) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        logger.debug("Could not delete old user index {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not list user index files: {}", e.getMessage());
+        }
+    }
+
+    private static void deleteOtherDataFiles(Path directory, String baseName, long keep) {
+        String prefix = baseName + ".dat.";
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                boolean other = keep != 0 && name.equals(baseName + ".dat");
+                if (name.startsWith(prefix)) {
+                    try {
+                        other = Long.parseLong(name.substring(prefix.length())) != keep;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                if (other) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        logger.debug("Could not delete old user data file {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not list user data files: {}", e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Could not close {}: {}", closeable, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        table.buffer.force();
+        table.data.close();
+    }
+}
@@ -0,0 +1,161 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import chat.server.model.User;
+
+public class MappedUserStore extends AbstractJournaledUserStore {
+    private static final Logger logger = LoggerFactory.getLogger(MappedUserStore.class);
+    private final Map<String, User> pendingUsers = new ConcurrentHashMap<>();
+    private final Map<String, User> hotUsers = new ConcurrentHashMap<>();
+    private final int hotCacheSize;
+    // Distinct users in the index and the journal, kept up to date on writes so
+    // count() never has to look pending users up in the index
+    private final AtomicInteger userCount = new AtomicInteger();
+    private MappedUserIndex index;
+
+    public MappedUserStore(String basePath, int commitBatchSize, long commitMaxLatencyMicros, int hotCacheSize)
+            throws IOException {
+        super(basePath, commitBatchSize, commitMaxLatencyMicros);
+        this.hotCacheSize = Math.max(16, hotCacheSize);
+
+        Path base = Paths.get(basePath).toAbsolutePath();
+        index = MappedUserIndex.open(base.getParent(), base.getFileName().toString());
+        if (Files.exists(Paths.get(basePath + ".snap"))) {
+            importSnapshot();
+        }
+        if (Files.exists(Paths.get(basePath + ".json"))) {
+            migrateFromJson();
+        }
+
+        userCount.set(index.size());
+        openJournal();
+        logger.info("Opened user index {} with {} users. Pending users: {}",
+            basePath, index.size(), pendingUsers.size());
+    }
+
+    private void migrateFromJson() throws IOException {
+        Path jsonPath = Paths.get(basePath + ".json");
+        Map<String, User> loaded = UserSnapshot.readJson(jsonPath);
+        index.putAll(loaded.values());
+        Files.move(jsonPath, Paths.get(basePath + ".json.migrated"), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Migrated {} users from {} to the user index", loaded.size(), jsonPath);
+    }
+
+    private void importSnapshot() throws IOException {
+        Path snapshotPath = Paths.get(basePath + ".snap");
+        long start = System.nanoTime();
+        long imported;
+        try {
+            imported = UserSnapshot.read(snapshotPath, batch -> {
+                try {
+                    index.putAll(batch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, Runtime.getRuntime().availableProcessors());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(snapshotPath, Paths.get(basePath + ".snap.imported"), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Imported {} users from {} in {} ms", imported, snapshotPath,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    protected void applyCommitted(User user) {
+        if (pendingUsers.put(user.getUsername(), user) == null && !isIndexed(user.getUsername())) {
+            userCount.incrementAndGet();
+        }
+    }
+
+    private boolean isIndexed(String username) {
+        try {
+            return index.contains(username);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void checkpoint() throws IOException {
+        List<User> batch = new ArrayList<>(pendingUsers.values());
+        index.putAll(batch);
+
+        for (User user : batch) {
+            hotUsers.computeIfPresent(user.getUsername(), (name, cached) -> user);
+            pendingUsers.remove(user.getUsername(), user);
+        }
+        logger.info("Compacted {} journal records into the user index. Total users: {}",
+            batch.size(), index.size());
+    }
+
+    @Override
+    public User find(String username) throws IOException {
+        User user = pendingUsers.get(username);
+        if (user != null) {
+            return user;
+        }
+
+        user = hotUsers.get(username);
+        if (user != null) {
+            return user;
+        }
+
+        user = index.find(username);
+        if (user != null) {
+            cacheUser(user);
+        }
+        return user;
+    }
+
+    private void cacheUser(User user) {
+        if (hotUsers.size() >= hotCacheSize) {
+            int toEvict = hotCacheSize / 8;
+            Iterator<String> iterator = hotUsers.keySet().iterator();
+            while (toEvict-- > 0 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        hotUsers.put(user.getUsername(), user);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws IOException {
+        index.forEachUsername(action);
+        pendingUsers.keySet().forEach(action);
+    }
+
+    @Override
+    public int count() {
+        return userCount.get();
+    }
+
+    @Override
+    public String getName() {
+        return "mapped";
+    }
+
+    @Override
+    protected boolean hasJournalRecords() {
+        return super.hasJournalRecords() || !pendingUsers.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+public class UserJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(UserJournal.class);
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private static final class PendingRecord {
+        final ByteBuffer data;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingRecord(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    private final Path path;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+    private final BlockingQueue<PendingRecord> commitQueue = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    private Thread committer;
+    private volatile boolean closed;
+    private int recordCount;
+    private long commitCount;
+
+    public UserJournal(Path path) {
+        this(path, 256, 0);
+    }
+
+    public UserJournal(Path path, int maxBatchSize, long maxLatencyMicros) {
+        this.path = path;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxLatencyMicros));
+    }
+
+    public synchronized int open(BiConsumer<String, String> consumer) throws IOException {
+        recordCount = replay(path, consumer, true);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        
+        committer = new Thread(this::runCommitter, "UserJournal-Committer");
+        committer.setDaemon(true);
+        committer.start();
+        return recordCount;
+    }
+
+    public void append(String username, String passwordHash) throws IOException {
+        try {
+            appendAsync(username, passwordHash).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for journal commit");
+        }
+    }
+
+    public CompletableFuture<Void> appendAsync(String username, String passwordHash) {
+        PendingRecord record;
+        try {
+            record = new PendingRecord(encode(username, passwordHash));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (closed || committer == null) {
+            record.durable.completeExceptionally(new IOException("Journal " + path + " is not open"));
+            return record.durable;
+        }
+        commitQueue.add(record);
+        if (closed && commitQueue.remove(record)) {
+            record.durable.completeExceptionally(new IOException("Journal " + path + " is closed"));
+        }
+        return record.durable;
+    }
+
+    private void runCommitter() {
+        List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !commitQueue.isEmpty()) {
+            try {
+                PendingRecord first = commitQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                commitQueue.drainTo(batch, maxBatchSize - batch.size());
+                
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingRecord next = commitQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    commitQueue.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private synchronized void commit(List<PendingRecord> batch) {
+        IOException failure = null;
+        long start = -1;
+        try {
+            if (channel == null) {
+                throw new IOException("Journal " + path + " is not open");
+            }
+            start = channel.position();
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).data;
+            }
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+            recordCount += batch.size();
+            commitCount++;
+        } catch (IOException e) {
+            failure = e;
+            logger.error("Error committing {} journal records: {}", batch.size(), e.getMessage(), e);
+            if (start >= 0) {
+                try {
+                    channel.truncate(start);
+                    channel.position(start);
+                } catch (IOException truncateError) {
+                    logger.error("Error rolling back journal tail: {}", truncateError.getMessage());
+                }
+            }
+        }
+        
+        for (PendingRecord record : batch) {
+            if (failure == null) {
+                record.durable.complete(null);
+            } else {
+                record.durable.completeExceptionally(failure);
+            }
+        }
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    public synchronized void rotate(Path rotatedPath) throws IOException {
+        channel.close();
+        boolean moved = false;
+        try {
+            Files.move(path, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            if (moved) {
+                recordCount = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (committer != null) {
+            try {
+                committer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+        
+        PendingRecord record;
+        while ((record = commitQueue.poll()) != null) {
+            record.durable.completeExceptionally(new IOException("Journal " + path + " is closed"));
+        }
+    }
+
+    static ByteBuffer encode(String username, String passwordHash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(username);
+            out.writeUTF(passwordHash);
+        }
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    public static int replay(Path path, BiConsumer<String, String> consumer, boolean truncateTornTail)
+            throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        int count = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int expectedCrc;
+                try {
+                    length = in.readInt();
+                    expectedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    logger.warn("Invalid record length {} in {} at offset {}", length, path, validLength);
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    logger.warn("Truncated record in {} at offset {}", path, validLength);
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warn("CRC mismatch in {} at offset {}", path, validLength);
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                consumer.accept(record.readUTF(), record.readUTF());
+                validLength += HEADER_SIZE + length;
+                count++;
+            }
+        }
+
+        long fileLength = Files.size(path);
+        if (validLength < fileLength && truncateTornTail) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+            logger.warn("Discarded {} bytes of incomplete journal tail in {}", fileLength - validLength, path);
+        }
+
+        logger.info("Replayed {} records from {}", count, path);
+        return count;
+    }
+}
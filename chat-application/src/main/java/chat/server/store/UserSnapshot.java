@@ -0,0 +1,264 @@
+package chat.server.store;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import chat.server.model.User;
+
+public class UserSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(UserSnapshot.class);
+    private static final int MAGIC = 0x43555353;
+    private static final int FORMAT_VERSION = 1;
+    private static final byte KIND_RAW = 0;
+    private static final byte KIND_TEXT = 1;
+    private static final int RAW_CREDENTIAL_LENGTH = 64;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final int CHUNK_RECORDS = 4096;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public static void write(Path path, Collection<User> users) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(users.size());
+
+            for (User user : users) {
+                byte[] record = encode(user);
+                out.writeInt(record.length);
+                out.write(record);
+                crc.update(record);
+            }
+
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote {} users to snapshot {}", users.size(), path);
+    }
+
+    /**
+     * Passes every user in the snapshot to {@code consumer} in chunks. The
+     * checksum is verified in a first pass, so a corrupt or truncated snapshot
+     * fails before the consumer sees any of it.
+     */
+    public static long read(Path path, Consumer<List<User>> consumer, int parallelism) throws IOException {
+        verifyChecksum(path);
+
+        ExecutorService decoders = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread thread = new Thread(r, "UserSnapshot-Decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<List<User>>> inFlight = new ArrayDeque<>();
+        int maxInFlight = Math.max(1, parallelism) * 2;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a user snapshot: " + path);
+            }
+            long expected = in.readLong();
+            CRC32 crc = new CRC32();
+            long read = 0;
+
+            while (read < expected) {
+                int chunkSize = (int) Math.min(CHUNK_RECORDS, expected - read);
+                byte[][] chunk = new byte[chunkSize][];
+                for (int i = 0; i < chunkSize; i++) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        throw new IOException("Invalid record length " + length + " in " + path);
+                    }
+                    chunk[i] = new byte[length];
+                    in.readFully(chunk[i]);
+                    crc.update(chunk[i]);
+                }
+                read += chunkSize;
+
+                inFlight.add(decoders.submit(() -> decodeChunk(chunk)));
+                if (inFlight.size() >= maxInFlight) {
+                    consumer.accept(await(inFlight.poll()));
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                consumer.accept(await(inFlight.poll()));
+            }
+
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Checksum mismatch in user snapshot " + path);
+            }
+            return read;
+        } catch (EOFException e) {
+            throw new IOException("User snapshot " + path + " is truncated", e);
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    private static void verifyChecksum(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a user snapshot: " + path);
+            }
+            long expected = in.readLong();
+            CRC32 crc = new CRC32();
+            byte[] record = new byte[MAX_RECORD_SIZE];
+            for (long i = 0; i < expected; i++) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("Invalid record length " + length + " in " + path);
+                }
+                in.readFully(record, 0, length);
+                crc.update(record, 0, length);
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Checksum mismatch in user snapshot " + path);
+            }
+        } catch (EOFException e) {
+            throw new IOException("User snapshot " + path + " is truncated", e);
+        }
+    }
+
+    public static Map<String, User> readAll(Path path) throws IOException {
+        Map<String, User> users = new HashMap<>();
+        read(path, batch -> {
+            for (User user : batch) {
+                users.put(user.getUsername(), user);
+            }
+        }, Runtime.getRuntime().availableProcessors());
+        return users;
+    }
+
+    public static Map<String, User> readJson(Path path) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            Type type = new TypeToken<Map<String, User>>(){}.getType();
+            Map<String, User> users = new Gson().fromJson(reader, type);
+            return users != null ? users : new HashMap<>();
+        }
+    }
+
+    public static void writeJson(Path path, Collection<User> users) throws IOException {
+        Map<String, User> byName = new LinkedHashMap<>();
+        for (User user : users) {
+            byName.put(user.getUsername(), user);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(path), StandardCharsets.UTF_8))) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(byName, writer);
+        }
+    }
+
+    private static List<User> await(Future<List<User>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading user snapshot");
+        }
+    }
+
+    private static byte[] encode(User user) throws IOException {
+        byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte kind = KIND_TEXT;
+        byte[] credential = null;
+        try {
+            byte[] decoded = Base64.getDecoder().decode(user.getPasswordHash());
+            if (decoded.length == RAW_CREDENTIAL_LENGTH
+                    && Base64.getEncoder().encodeToString(decoded).equals(user.getPasswordHash())) {
+                kind = KIND_RAW;
+                credential = decoded;
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        if (credential == null) {
+            credential = user.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        }
+        if (username.length > 0xFFFF || credential.length > 0xFFFF) {
+            throw new IOException("User record too large: " + user.getUsername());
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(2 + username.length + 1 + 2 + credential.length);
+        record.putShort((short) username.length);
+        record.put(username);
+        record.put(kind);
+        record.putShort((short) credential.length);
+        record.put(credential);
+        return record.array();
+    }
+
+    private static List<User> decodeChunk(byte[][] chunk) throws IOException {
+        List<User> users = new ArrayList<>(chunk.length);
+        Base64.Encoder base64 = Base64.getEncoder();
+        for (byte[] record : chunk) {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            try {
+                int usernameLength = Short.toUnsignedInt(buffer.getShort());
+                String username = new String(record, buffer.position(), usernameLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + usernameLength);
+                byte kind = buffer.get();
+                int credentialLength = Short.toUnsignedInt(buffer.getShort());
+                String passwordHash;
+                if (kind == KIND_RAW) {
+                    byte[] raw = new byte[credentialLength];
+                    buffer.get(raw);
+                    passwordHash = base64.encodeToString(raw);
+                } else if (kind == KIND_TEXT) {
+                    passwordHash = new String(record, buffer.position(), credentialLength, StandardCharsets.UTF_8);
+                } else {
+                    throw new IOException("Unknown credential kind " + kind);
+                }
+                users.add(new User(username, passwordHash));
+            } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed user record", e);
+            }
+        }
+        return users;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-json"))) {
+            System.err.println("Usage: UserSnapshot to-binary <users.json> <users.snap>");
+            System.err.println("       UserSnapshot to-json <users.snap> <users.json>");
+            System.exit(2);
+        }
+
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        long start = System.nanoTime();
+        Map<String, User> users = args[0].equals("to-binary") ? readJson(source) : readAll(source);
+        long loaded = System.nanoTime();
+
+        if (args[0].equals("to-binary")) {
+            write(target, users.values());
+        } else {
+            writeJson(target, users.values());
+        }
+
+        System.out.printf("Converted %d users from %s to %s (load %d ms, write %d ms)%n",
+            users.size(), source, target,
+            TimeUnit.NANOSECONDS.toMillis(loaded - start),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loaded));
+    }
+}
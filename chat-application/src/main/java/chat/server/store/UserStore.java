@@ -0,0 +1,56 @@
+package chat.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import chat.server.model.User;
+
+public interface UserStore extends Closeable {
+
+    User find(String username) throws IOException;
+
+    /**
+     * Adds the user if the name is free. Returns only after the user is
+     * durable in this store, and false if the name is already taken.
+     */
+    boolean insert(User user) throws IOException;
+
+    /**
+     * Same as {@link #insert(User)}, but returns before the user is durable so
+     * the caller's thread is not held while the store commits. Stores without
+     * an asynchronous commit path insert synchronously.
+     */
+    default CompletableFuture<Boolean> insertAsync(User user) {
+        try {
+            return CompletableFuture.completedFuture(insert(user));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void update(User user) throws IOException;
+
+    /**
+     * Same as {@link #update(User)}, but returns before the change is durable.
+     * Stores without an asynchronous commit path update synchronously.
+     */
+    default CompletableFuture<Void> updateAsync(User user) {
+        try {
+            update(user);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Visits every stored username. A name may be visited more than once.
+     */
+    void forEachUsername(Consumer<String> action) throws IOException;
+
+    int count();
+
+    String getName();
+}
@@ -0,0 +1,30 @@
+package chat.server.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+
+public class UserStores {
+    private static final Logger logger = LoggerFactory.getLogger(UserStores.class);
+
+    public static UserStore create(String type, String file, int commitBatchSize,
+                                   long commitMaxLatencyMicros, int hotCacheSize) throws IOException {
+        String basePath = file.endsWith(".json") ? file.substring(0, file.length() - ".json".length()) : file;
+        UserStore store;
+        switch (type) {
+            case "memory":
+                store = new InMemoryUserStore();
+                break;
+            case "journal":
+                store = new JournalUserStore(basePath, commitBatchSize, commitMaxLatencyMicros);
+                break;
+            case "mapped":
+                store = new MappedUserStore(basePath, commitBatchSize, commitMaxLatencyMicros, hotCacheSize);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown user store type: " + type);
+        }
+        logger.info("Using {} user store at {}", store.getName(), basePath);
+        return store;
+    }
+}
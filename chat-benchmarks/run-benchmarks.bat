@@ -0,0 +1,41 @@
+@echo off
+cd /d %~dp0
+echo ================================
+echo     CHAT BENCHMARKS
+echo ================================
+echo.
+
+echo 1. Installing chat-application...
+call mvn -q -f ..\chat-application\pom.xml install -DskipTests
+if errorlevel 1 (
+    echo ERROR: chat-application build failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo 2. Building benchmarks...
+call mvn clean package
+if errorlevel 1 (
+    echo ERROR: Compilation failed!
+    pause
+    exit /b 1
+)
+
+echo.
+echo 3. Checking user store conformance...
+java -cp target/benchmarks.jar chat.server.store.UserStoreConformance
+if errorlevel 1 (
+    echo ERROR: A user store does not meet the UserStore contract!
+    pause
+    exit /b 1
+)
+
+echo.
+echo 4. Running benchmarks...
+echo    Options are passed to JMH, e.g. BroadcastBenchmark -p clients=100 -prof gc
+echo.
+
+java -jar target/benchmarks.jar %*
+
+pause
\ No newline at end of file
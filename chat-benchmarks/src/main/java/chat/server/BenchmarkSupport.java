@@ -0,0 +1,163 @@
+package chat.server;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Shared setup for the server benchmarks: a ChatServer that is configured but
+ * not listening, and ClientHandlers on stub sockets logged in through the
+ * normal login path.
+ */
+public final class BenchmarkSupport {
+    static final String PASSWORD = "Bench-password1";
+    private static final AtomicInteger nextPort = new AtomicInteger(40000);
+    
+    private BenchmarkSupport() {
+    }
+    
+    /**
+     * Turns the application's logging off, since a log line per message would
+     * be most of what the benchmarks measure.
+     */
+    public static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.OFF);
+        ((Logger) LoggerFactory.getLogger("chat.server")).setLevel(Level.OFF);
+        ((Logger) LoggerFactory.getLogger("chat.server.ClientHandler")).setLevel(Level.OFF);
+    }
+    
+    /**
+     * Creates a ChatServer with an in-memory user store and cheap password
+     * hashing, without opening its server socket.
+     */
+    static ChatServer newServer() throws IOException {
+        quietLogging();
+        Path keyFile = Files.createTempFile("bench-session", ".key");
+        Files.delete(keyFile);
+        keyFile.toFile().deleteOnExit();
+        System.setProperty("database.type", "memory");
+        System.setProperty("auth.hashIterations", "1000");
+        System.setProperty("auth.sessionKeyFile", keyFile.toString());
+        return new ChatServer();
+    }
+    
+    /**
+     * Registers {@code count} users and logs each of them in on its own stub
+     * socket through the login frame, one at a time, so the auth executor's
+     * queue never overflows.
+     */
+    static List<ClientHandler> loginClients(ChatServer server, int count) throws InterruptedException {
+        List<ClientHandler> clients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String username = "bench" + i;
+            server.registerUser(username, PASSWORD);
+            
+            ClientHandler client = new ClientHandler(new StubSocket(), server);
+            server.addClient(client);
+            client.processMessage("{\"type\":\"login\",\"username\":\"" + username +
+                "\",\"password\":\"" + PASSWORD + "\",\"requestId\":1}");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!client.isAuthenticated()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(username + " did not log in");
+                }
+                Thread.sleep(1);
+            }
+            clients.add(client);
+        }
+        return clients;
+    }
+    
+    /**
+     * Creates an empty directory for a file-backed user store.
+     */
+    public static Path newStoreDirectory() throws IOException {
+        return Files.createTempDirectory("bench-store");
+    }
+    
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    static void closeClients(List<ClientHandler> clients) {
+        for (ClientHandler client : clients) {
+            client.close();
+        }
+    }
+    
+    /**
+     * Socket that is never connected: writes are discarded and reads see end of
+     * stream, so only the server's own work is measured.
+     */
+    static final class StubSocket extends Socket {
+        private final int port = nextPort.incrementAndGet();
+        private volatile boolean closed;
+        
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+        
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+        
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+        
+        @Override
+        public int getPort() {
+            return port;
+        }
+        
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+        
+        @Override
+        public boolean isConnected() {
+            return !closed;
+        }
+        
+        @Override
+        public void close() {
+            closed = true;
+        }
+        
+        @Override
+        public void setSoTimeout(int timeout) {
+        }
+        
+        @Override
+        public void setKeepAlive(boolean on) {
+        }
+        
+        @Override
+        public void setTcpNoDelay(boolean on) {
+        }
+    }
+}
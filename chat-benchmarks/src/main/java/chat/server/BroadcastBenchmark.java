@@ -0,0 +1,44 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one frame by ChatServer.broadcastToAuthenticated to every
+ * logged-in client. Clients sit on stub sockets, so this measures the copy of
+ * the client list and the per-client queueing, not the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final String FRAME = "{\"type\":\"chat\",\"sender\":\"bench0\",\"message\":\"" +
+        "x".repeat(100) + "\",\"timestamp\":0,\"id\":1}";
+    
+    @Param({"1", "10", "100", "1000"})
+    public int clients;
+    
+    private ChatServer server;
+    private List<ClientHandler> handlers;
+    
+    @Setup
+    public void setUp() throws Exception {
+        server = BenchmarkSupport.newServer();
+        handlers = BenchmarkSupport.loginClients(server, clients);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.closeClients(handlers);
+        server.stop();
+    }
+    
+    @Benchmark
+    public void broadcastToAuthenticated() {
+        server.broadcastToAuthenticated(FRAME);
+    }
+}
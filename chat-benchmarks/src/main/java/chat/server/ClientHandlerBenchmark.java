@@ -0,0 +1,74 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and dispatch of one inbound frame by ClientHandler.processMessage,
+ * for a logged-in client on a stub socket. The chat frame is measured until
+ * it is recorded in the history and the broadcaster thread has queued it for
+ * the one connected client, so the hand-off between the two threads is
+ * included and the broadcaster never falls behind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientHandlerBenchmark {
+    private static final String HEARTBEAT = "{\"type\":\"heartbeat\",\"requestId\":7}";
+    private static final String CHAT = "{\"type\":\"message\",\"message\":\"" + "x".repeat(100) + "\"}";
+    private static final String HISTORY = "{\"type\":\"history\",\"limit\":50,\"requestId\":8}";
+    private static final String UNKNOWN = "{\"type\":\"nonsense\",\"requestId\":9}";
+    private static final String MALFORMED = "{\"type\":\"message\",\"message\":";
+    
+    private ChatServer server;
+    private List<ClientHandler> clients;
+    private ClientHandler client;
+    
+    @Setup
+    public void setUp() throws Exception {
+        server = BenchmarkSupport.newServer();
+        clients = BenchmarkSupport.loginClients(server, 1);
+        client = clients.get(0);
+        // Fill the history so history requests return full pages
+        for (int i = 0; i < 200; i++) {
+            client.processMessage(CHAT);
+        }
+        server.awaitBroadcasts();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.closeClients(clients);
+        server.stop();
+    }
+    
+    @Benchmark
+    public void heartbeat() {
+        client.processMessage(HEARTBEAT);
+    }
+    
+    @Benchmark
+    public void chatMessage() throws InterruptedException {
+        client.processMessage(CHAT);
+        server.awaitBroadcasts();
+    }
+    
+    @Benchmark
+    public void historyPage() {
+        client.processMessage(HISTORY);
+    }
+    
+    @Benchmark
+    public void unknownType() {
+        client.processMessage(UNKNOWN);
+    }
+    
+    @Benchmark
+    public void malformed() {
+        client.processMessage(MALFORMED);
+    }
+}
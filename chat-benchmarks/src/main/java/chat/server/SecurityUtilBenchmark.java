@@ -0,0 +1,53 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+import chat.server.model.User;
+
+/**
+ * Cost of hashing and checking a password at the PBKDF2 iteration counts the
+ * server is typically configured with. checkPasswordUser uses the credential
+ * cached on the User, checkPasswordString decodes the stored hash each time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityUtilBenchmark {
+    private static final String PASSWORD = "Bench-password1";
+    
+    @Param({"10000", "100000"})
+    public int iterations;
+    
+    private String storedHash;
+    private User user;
+    
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.quietLogging();
+        SecurityUtil.configure(iterations, 0, 0);
+        storedHash = SecurityUtil.hashPassword(PASSWORD);
+        user = new User("bench", storedHash);
+        if (!SecurityUtil.checkPassword(PASSWORD, user)) {
+            throw new IllegalStateException("Stored hash does not verify");
+        }
+    }
+    
+    @Benchmark
+    public String hashPassword() {
+        return SecurityUtil.hashPassword(PASSWORD);
+    }
+    
+    @Benchmark
+    public boolean checkPasswordString() {
+        return SecurityUtil.checkPassword(PASSWORD, storedHash);
+    }
+    
+    @Benchmark
+    public boolean checkPasswordUser() {
+        return SecurityUtil.checkPassword(PASSWORD, user);
+    }
+}
@@ -0,0 +1,172 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.*;
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full against resumed TLS handshake with the server's SSLContext from
+ * TlsSupport. The handshake runs between two SSLEngines in memory, so only the
+ * cryptography and handshake processing are measured. The client caches
+ * sessions per host and port: a new port each time forces a full handshake,
+ * a fixed one lets the client resume.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String HOST = "localhost";
+    private static final int RESUMED_PORT = 8443;
+    
+    @Param({"TLSv1.3", "TLSv1.2"})
+    public String protocol;
+    
+    private Path directory;
+    private SSLContext serverContext;
+    private SSLContext clientContext;
+    private final AtomicInteger nextPort = new AtomicInteger(10000);
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.quietLogging();
+        directory = Files.createTempDirectory("bench-tls");
+        Path keyStore = directory.resolve("server.p12");
+        generateKeyStore(keyStore);
+        
+        serverContext = TlsSupport.createServerContext(keyStore.toString(), PASSWORD, 20000, 86400);
+        clientContext = createClientContext(keyStore);
+        // Leaves a session for the resumed handshakes to pick up
+        handshake(RESUMED_PORT);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+    
+    private static void generateKeyStore(Path keyStore) throws IOException, InterruptedException {
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "chat",
+            "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=" + HOST,
+            "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+            "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+            .redirectErrorStream(true)
+            .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed: " + output);
+        }
+    }
+    
+    private static SSLContext createClientContext(Path keyStorePath)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(keyStorePath)) {
+            keyStore.load(input, PASSWORD);
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        return context;
+    }
+    
+    @Benchmark
+    public SSLSession fullHandshake() throws SSLException {
+        return handshake(nextPort.incrementAndGet());
+    }
+    
+    @Benchmark
+    public SSLSession resumedHandshake() throws SSLException {
+        return handshake(RESUMED_PORT);
+    }
+    
+    /**
+     * Runs one handshake to completion, including the session ticket the
+     * TLS 1.3 server sends after it, and returns the client's session.
+     */
+    SSLSession handshake(int port) throws SSLException {
+        SSLEngine client = clientContext.createSSLEngine(HOST, port);
+        client.setUseClientMode(true);
+        client.setEnabledProtocols(new String[] {protocol});
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        server.setEnabledProtocols(new String[] {protocol});
+        
+        int packetSize = Math.max(client.getSession().getPacketBufferSize(),
+            server.getSession().getPacketBufferSize());
+        int appSize = Math.max(client.getSession().getApplicationBufferSize(),
+            server.getSession().getApplicationBufferSize());
+        ByteBuffer toServer = ByteBuffer.allocate(packetSize * 4);
+        ByteBuffer toClient = ByteBuffer.allocate(packetSize * 4);
+        ByteBuffer app = ByteBuffer.allocate(appSize);
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int round = 0; round < 100; round++) {
+            boolean progress = step(client, empty, toServer, toClient, app);
+            progress |= step(server, empty, toClient, toServer, app);
+            if (!progress && !isHandshaking(client) && !isHandshaking(server)) {
+                return client.getSession();
+            }
+        }
+        throw new SSLException("Handshake did not complete");
+    }
+    
+    private static boolean isHandshaking(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+            && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+    
+    /**
+     * Lets one engine write what it has to send and read what it has received.
+     * Returns whether any bytes moved.
+     */
+    private static boolean step(SSLEngine engine, ByteBuffer empty, ByteBuffer outbound,
+                                ByteBuffer inbound, ByteBuffer app) throws SSLException {
+        boolean progress = false;
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                progress = true;
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                SSLEngineResult result = engine.wrap(empty, outbound);
+                progress |= result.bytesProduced() > 0;
+                if (result.bytesProduced() == 0 && engine.getHandshakeStatus() == status) {
+                    return progress;
+                }
+            } else if (inbound.position() > 0) {
+                // Also covers post-handshake messages such as the session ticket
+                inbound.flip();
+                SSLEngineResult result = engine.unwrap(inbound, app);
+                inbound.compact();
+                app.clear();
+                progress |= result.bytesConsumed() > 0;
+                if (result.bytesConsumed() == 0) {
+                    return progress;
+                }
+            } else {
+                return progress;
+            }
+        }
+    }
+}
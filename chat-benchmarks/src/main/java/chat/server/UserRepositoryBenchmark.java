@@ -0,0 +1,65 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.*;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chat.server.store.UserStores;
+
+/**
+ * UserRepository.register and login on each user store. Hashing is set to a
+ * low iteration count so the store and filter work is not hidden behind
+ * PBKDF2; SecurityUtilBenchmark covers the hash itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRepositoryBenchmark {
+    private static final int EXISTING_USERS = 1000;
+    private static final int HASH_ITERATIONS = 1000;
+    
+    @Param({"memory", "journal", "mapped"})
+    public String store;
+    
+    private Path directory;
+    private UserRepository repository;
+    private final AtomicLong nextUser = new AtomicLong();
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.quietLogging();
+        SecurityUtil.configure(HASH_ITERATIONS, 0, 0);
+        directory = BenchmarkSupport.newStoreDirectory();
+        repository = new UserRepository(UserStores.create(store, directory.resolve("users").toString(),
+            256, 2000, 10000));
+        for (int i = 0; i < EXISTING_USERS; i++) {
+            repository.register("user" + i, BenchmarkSupport.PASSWORD);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        repository.close();
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+    
+    @Benchmark
+    public boolean register() {
+        return repository.register("new" + nextUser.incrementAndGet(), BenchmarkSupport.PASSWORD);
+    }
+    
+    @Benchmark
+    public boolean loginExisting() {
+        int user = (int) (nextUser.incrementAndGet() % EXISTING_USERS);
+        return repository.login("user" + user, BenchmarkSupport.PASSWORD);
+    }
+    
+    @Benchmark
+    public boolean loginUnknown() {
+        return repository.login("missing" + nextUser.incrementAndGet(), BenchmarkSupport.PASSWORD);
+    }
+}
@@ -0,0 +1,111 @@
+package chat.server.store;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chat.server.BenchmarkSupport;
+import chat.server.model.User;
+
+/**
+ * Lookup and insert latency of the user store backends on the same data set.
+ * Each store is first checked with UserStoreConformance. Insert waits for the
+ * group commit, so on the file-backed stores it mostly measures
+ * {@code commitMaxLatencyMicros}; run it with more threads ({@code -t}) to see
+ * batching.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserStoreBenchmark {
+    static final int COMMIT_BATCH_SIZE = 256;
+    static final long COMMIT_MAX_LATENCY_MICROS = 2000;
+    static final int HOT_CACHE_SIZE = 10000;
+    static final String HASH = "$pbkdf2-sha256$1000$" + "A".repeat(43) + "=$" + "B".repeat(43) + "=";
+    
+    @Param({"memory", "journal", "mapped"})
+    public String type;
+    
+    @Param({"100000"})
+    public int users;
+    
+    private Path directory;
+    private UserStore store;
+    private final AtomicLong next = new AtomicLong();
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        UserStoreConformance.check(type);
+        directory = BenchmarkSupport.newStoreDirectory();
+        store = open(type, directory);
+        fill(store, users);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+    
+    static UserStore open(String type, Path directory) throws IOException {
+        return UserStores.create(type, directory.resolve("users").toString(),
+            COMMIT_BATCH_SIZE, COMMIT_MAX_LATENCY_MICROS, HOT_CACHE_SIZE);
+    }
+    
+    /**
+     * Inserts {@code users} users from as many threads as a commit batch holds,
+     * so the file-backed stores fill in full group commits.
+     */
+    static void fill(UserStore store, int users) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(COMMIT_BATCH_SIZE);
+        try {
+            List<Future<?>> futures = new ArrayList<>(COMMIT_BATCH_SIZE);
+            for (int t = 0; t < COMMIT_BATCH_SIZE; t++) {
+                int first = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = first; i < users; i += COMMIT_BATCH_SIZE) {
+                        store.insert(new User("user" + i, HASH));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while filling the store", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error filling the store", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    @Benchmark
+    public User findExisting() throws IOException {
+        return store.find("user" + (int) (next.incrementAndGet() % users));
+    }
+    
+    @Benchmark
+    public User findMissing() throws IOException {
+        return store.find("missing" + next.incrementAndGet());
+    }
+    
+    @Benchmark
+    public boolean insert() throws IOException {
+        return store.insert(new User("new" + next.incrementAndGet(), HASH));
+    }
+}
@@ -0,0 +1,205 @@
+package chat.server.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import chat.server.BenchmarkSupport;
+import chat.server.model.User;
+
+/**
+ * The UserStore contract, checked against live stores: single-instance
+ * operations, concurrent inserts of the same name, and for the file-backed
+ * stores that inserts and updates survive a close and reopen. The store
+ * benchmarks run it first so that no backend is measured while behaving
+ * differently from the others, and {@link #main} runs it on its own. Throws
+ * IllegalStateException on the first mismatch.
+ */
+public final class UserStoreConformance {
+    private static final int RACE_ROUNDS = 50;
+    private static final int RACE_THREADS = 16;
+    
+    /**
+     * Opens the store under test, on the same files every time.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        UserStore open() throws IOException;
+    }
+    
+    private UserStoreConformance() {
+    }
+    
+    /**
+     * Checks a store of the given {@code database.type} in a temporary
+     * directory that is deleted afterwards.
+     */
+    public static void check(String type) throws IOException {
+        Path directory = BenchmarkSupport.newStoreDirectory();
+        try {
+            check(() -> UserStoreBenchmark.open(type, directory), !"memory".equals(type));
+        } finally {
+            BenchmarkSupport.deleteDirectory(directory);
+        }
+    }
+    
+    /**
+     * Checks a store that {@code opener} opens empty the first time. If
+     * {@code persistent}, the store is also closed and reopened and must still
+     * hold everything written before. The store is closed on return.
+     */
+    public static void check(Opener opener, boolean persistent) throws IOException {
+        Set<String> expected = new HashSet<>(Set.of("conformance-a", "conformance-b"));
+        try (UserStore store = opener.open()) {
+            checkOperations(store);
+            expected.addAll(checkConcurrentInserts(store));
+        }
+        if (!persistent) {
+            return;
+        }
+        
+        try (UserStore store = opener.open()) {
+            checkContents(store, expected, "hash-a3", "after reopen");
+            expect(!store.insert(new User("conformance-a", "hash-a5")), store,
+                "insert of a name taken before the reopen succeeded");
+            store.update(new User("conformance-a", "hash-a4"));
+        }
+        try (UserStore store = opener.open()) {
+            checkContents(store, expected, "hash-a4", "after an update and a second reopen");
+        }
+    }
+    
+    /**
+     * Checks an empty store and leaves the users {@code conformance-a} and
+     * {@code conformance-b} in it.
+     */
+    private static void checkOperations(UserStore store) throws IOException {
+        expect(store.count() == 0, store, "a new store is not empty");
+        expect(store.find("conformance-a") == null, store, "find returns a user that was never inserted");
+        
+        expect(store.insert(new User("conformance-a", "hash-a1")), store, "insert of a free name failed");
+        expect(!store.insert(new User("conformance-a", "hash-a2")), store, "insert of a taken name succeeded");
+        User found = store.find("conformance-a");
+        expect(found != null && "hash-a1".equals(found.getPasswordHash()), store,
+            "find does not return the inserted hash");
+        
+        store.update(new User("conformance-a", "hash-a3"));
+        found = store.find("conformance-a");
+        expect(found != null && "hash-a3".equals(found.getPasswordHash()), store,
+            "find does not return the updated hash");
+        
+        expect(store.insert(new User("conformance-b", "hash-b1")), store, "second insert failed");
+        expect(store.count() == 2, store, "count is " + store.count() + " after two inserts");
+        
+        Set<String> names = new HashSet<>();
+        store.forEachUsername(names::add);
+        expect(names.equals(Set.of("conformance-a", "conformance-b")), store,
+            "forEachUsername visited " + names);
+    }
+    
+    /**
+     * Races {@link #RACE_THREADS} inserts of the same name, half of them through
+     * insertAsync, and checks that exactly one wins and its hash is the one
+     * stored. Returns the names inserted.
+     */
+    private static Set<String> checkConcurrentInserts(UserStore store) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(RACE_THREADS);
+        Set<String> inserted = new HashSet<>();
+        try {
+            for (int round = 0; round < RACE_ROUNDS; round++) {
+                String username = "conformance-race" + round;
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> attempts = new ArrayList<>(RACE_THREADS);
+                for (int t = 0; t < RACE_THREADS; t++) {
+                    User user = new User(username, "hash-" + t);
+                    boolean async = t % 2 == 1;
+                    attempts.add(pool.submit(() -> {
+                        start.await();
+                        if (async) {
+                            CompletableFuture<Boolean> result = store.insertAsync(user);
+                            return result.get();
+                        }
+                        return store.insert(user);
+                    }));
+                }
+                start.countDown();
+                
+                int winner = -1;
+                for (int t = 0; t < RACE_THREADS; t++) {
+                    if (attempts.get(t).get()) {
+                        expect(winner < 0, store, "two concurrent inserts of " + username + " succeeded");
+                        winner = t;
+                    }
+                }
+                expect(winner >= 0, store, "no concurrent insert of " + username + " succeeded");
+                User found = store.find(username);
+                expect(found != null && ("hash-" + winner).equals(found.getPasswordHash()), store,
+                    "find does not return the hash of the insert that won for " + username);
+                inserted.add(username);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while racing inserts", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error racing inserts", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        expect(store.count() == 2 + RACE_ROUNDS, store,
+            "count is " + store.count() + " after " + RACE_ROUNDS + " raced inserts");
+        return inserted;
+    }
+    
+    private static void checkContents(UserStore store, Set<String> expected, String hashA, String when)
+            throws IOException {
+        User found = store.find("conformance-a");
+        expect(found != null && hashA.equals(found.getPasswordHash()), store,
+            "find does not return the last hash " + when);
+        found = store.find("conformance-b");
+        expect(found != null && "hash-b1".equals(found.getPasswordHash()), store,
+            "an inserted user is missing " + when);
+        expect(store.count() == expected.size(), store,
+            "count is " + store.count() + " instead of " + expected.size() + " " + when);
+        
+        Set<String> names = new HashSet<>();
+        store.forEachUsername(names::add);
+        expect(names.equals(expected), store, "forEachUsername visited " + names.size()
+            + " names instead of " + expected.size() + " " + when);
+    }
+    
+    private static void expect(boolean condition, UserStore store, String message) {
+        if (!condition) {
+            throw new IllegalStateException(store.getName() + " store: " + message);
+        }
+    }
+    
+    /**
+     * Checks the given store types, or all of them, and exits with 1 if any
+     * fails, e.g. {@code java -cp target/benchmarks.jar chat.server.store.UserStoreConformance mapped}.
+     */
+    public static void main(String[] args) {
+        BenchmarkSupport.quietLogging();
+        String[] types = args.length > 0 ? args : new String[] {"memory", "journal", "mapped"};
+        boolean failed = false;
+        for (String type : types) {
+            try {
+                check(type);
+                System.out.println(type + ": OK");
+            } catch (Exception e) {
+                failed = true;
+                System.out.println(type + ": FAILED - " + e.getMessage());
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,50 @@
+package chat.server.store;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import chat.server.BenchmarkSupport;
+
+/**
+ * Time to open a store that already holds {@code users} users, which is the
+ * server's startup cost for its user data. The memory store keeps nothing
+ * between opens and gives the baseline.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserStoreStartupBenchmark {
+    @Param({"memory", "journal", "mapped"})
+    public String type;
+    
+    @Param({"100000", "1000000"})
+    public int users;
+    
+    private Path directory;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        directory = BenchmarkSupport.newStoreDirectory();
+        try (UserStore store = UserStoreBenchmark.open(type, directory)) {
+            UserStoreBenchmark.fill(store, users);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+    
+    @Benchmark
+    public int startup() throws IOException {
+        try (UserStore store = UserStoreBenchmark.open(type, directory)) {
+            return store.count();
+        }
+    }
+}